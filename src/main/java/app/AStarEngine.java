@@ -0,0 +1,292 @@
+package app;
+
+import java.util.*;
+
+/**
+ * Goal-directed earliest-arrival search over the timetable's CSR adjacency.
+ *
+ * Stations are settled in order of arrival time plus a lower bound on the
+ * remaining travel time, A*-style. Settling a station boards every train
+ * leaving it after the transfer buffer and rides it onward, so staying on a
+ * train never pays a transfer. The bound is the larger of
+ *   - the straight-line distance divided by the fastest hop in the network, and
+ *   - ALT landmark bounds: shortest ride times (waits ignored) to and from a
+ *     handful of hub stations, combined with the triangle inequality.
+ * Both never overestimate, so the result is the true earliest arrival. With
+ * {@code goalDirected} off this is plain time-dependent Dijkstra.
+ */
+public class AStarEngine implements RouteEngine {
+
+    static final int LANDMARKS = 8;
+    private static final int INF = Integer.MAX_VALUE;
+
+    private final Timetable tt;
+    private final boolean goalDirected;
+    private final int[] edgeSeq;           // position of each edge within its train's run
+    private final double minutesPerMile;   // 1 / fastest observed speed
+    private final int[][] fromLandmark;    // fromLandmark[l][v]: ride time landmark -> v
+    private final int[][] toLandmark;      // toLandmark[l][v]: ride time v -> landmark
+    private final ConnectionScan backward; // the last departure still making the arrival found
+
+    public AStarEngine(Timetable tt, boolean goalDirected) {
+        this(tt, goalDirected, null);
+    }
+
+    /**
+     * Over a re-timed copy of the timetable. The landmark tables are kept as
+     * long as every ride in it is still no quicker than they allow, and only
+     * recomputed when a hop got faster than any before.
+     */
+    @Override
+    public AStarEngine retimed(Timetable retimed) {
+        return new AStarEngine(retimed, goalDirected, this);
+    }
+
+    private AStarEngine(Timetable tt, boolean goalDirected, AStarEngine previous) {
+        this.tt = tt;
+        this.goalDirected = goalDirected;
+        this.backward = new ConnectionScan(tt);
+
+        int n = tt.stationCount();
+        edgeSeq = tt.edgeSequence();
+        double fastest = 0;
+        for (int s = 0; s < n; s++) {
+            for (int e = tt.offsets.get(s); e < tt.offsets.get(s + 1); e++) {
+                int minutes = tt.arrEpochMin.get(e) - tt.depEpochMin.get(e);
+                if (minutes > 0) fastest = Math.max(fastest, miles(s, tt.targets.get(e)) / minutes);
+            }
+        }
+        minutesPerMile = fastest > 0 ? 1 / fastest : 0;
+
+        if (goalDirected && n > 0 && previous != null && previous.boundsHold(tt)) {
+            fromLandmark = previous.fromLandmark;
+            toLandmark = previous.toLandmark;
+        } else if (goalDirected && n > 0) {
+            int[] landmarks = pickLandmarks(Math.min(LANDMARKS, n));
+            int[][][] graphs = {staticGraph(false), staticGraph(true)};
+            fromLandmark = new int[landmarks.length][];
+            toLandmark = new int[landmarks.length][];
+            for (int l = 0; l < landmarks.length; l++) {
+                fromLandmark[l] = staticDijkstra(graphs[0], landmarks[l]);
+                toLandmark[l] = staticDijkstra(graphs[1], landmarks[l]);
+            }
+        } else {
+            fromLandmark = toLandmark = new int[0][];
+        }
+    }
+
+    private double miles(int a, int b) {
+        ApiHandler.StationInfo x = tt.stations[a], y = tt.stations[b];
+        return RouteFinder.haversineDistance(x.lat, x.lon, y.lat, y.lon);
+    }
+
+    // -------------------- Lower bounds --------------------
+    /** Minutes from v to the target that no journey can beat. */
+    private int lowerBound(int v, int target) {
+        if (!goalDirected) return 0;
+        int best = (int) (miles(v, target) * minutesPerMile);
+        for (int l = 0; l < fromLandmark.length; l++) {
+            int a = fromLandmark[l][target], b = fromLandmark[l][v];
+            if (a != INF && b != INF) best = Math.max(best, a - b);
+            int c = toLandmark[l][v], d = toLandmark[l][target];
+            if (c != INF && d != INF) best = Math.max(best, c - d);
+        }
+        return best;
+    }
+
+    /** Whether the landmark ride times still never exceed those of the timetable's hops. */
+    private boolean boundsHold(Timetable tt) {
+        for (int s = 0; s < tt.stationCount(); s++) {
+            for (int e = tt.offsets.get(s); e < tt.offsets.get(s + 1); e++) {
+                int q = tt.targets.get(e);
+                long minutes = tt.arrEpochMin.get(e) - tt.depEpochMin.get(e);
+                for (int l = 0; l < fromLandmark.length; l++) {
+                    if (fromLandmark[l][s] != INF && fromLandmark[l][q] > fromLandmark[l][s] + minutes) return false;
+                    if (toLandmark[l][q] != INF && toLandmark[l][s] > toLandmark[l][q] + minutes) return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Busiest station first, then each next one as far as possible from those already picked. */
+    private int[] pickLandmarks(int k) {
+        int n = tt.stationCount();
+        int first = 0;
+        for (int s = 1; s < n; s++)
+            if (tt.offsets.get(s + 1) - tt.offsets.get(s) > tt.offsets.get(first + 1) - tt.offsets.get(first)) first = s;
+
+        int[] picked = new int[k];
+        double[] nearest = new double[n];
+        Arrays.fill(nearest, Double.MAX_VALUE);
+        picked[0] = first;
+        for (int i = 1; i < k; i++) {
+            int far = -1;
+            for (int s = 0; s < n; s++) {
+                nearest[s] = Math.min(nearest[s], miles(s, picked[i - 1]));
+                if (tt.offsets.get(s + 1) > tt.offsets.get(s) && (far == -1 || nearest[s] > nearest[far])) far = s;
+            }
+            picked[i] = far == -1 ? first : far;
+        }
+        return picked;
+    }
+
+    /**
+     * Station graph weighted by the quickest ride between neighbours, as
+     * {offsets, targets, minutes} arrays; reversed for distances to a station.
+     */
+    private int[][] staticGraph(boolean reversed) {
+        int n = tt.stationCount();
+        Map<Long, Integer> quickest = new HashMap<>();
+        for (int s = 0; s < n; s++) {
+            for (int e = tt.offsets.get(s); e < tt.offsets.get(s + 1); e++) {
+                int a = reversed ? tt.targets.get(e) : s, b = reversed ? s : tt.targets.get(e);
+                quickest.merge(((long) a << 32) | b, tt.arrEpochMin.get(e) - tt.depEpochMin.get(e), Math::min);
+            }
+        }
+        int[] offsets = new int[n + 1];
+        for (long key : quickest.keySet()) offsets[(int) (key >>> 32) + 1]++;
+        for (int s = 0; s < n; s++) offsets[s + 1] += offsets[s];
+        int[] targets = new int[quickest.size()], minutes = new int[quickest.size()];
+        int[] fill = Arrays.copyOf(offsets, n);
+        for (Map.Entry<Long, Integer> e : quickest.entrySet()) {
+            int i = fill[(int) (e.getKey() >>> 32)]++;
+            targets[i] = (int) (long) e.getKey();
+            minutes[i] = e.getValue();
+        }
+        return new int[][]{offsets, targets, minutes};
+    }
+
+    private static int[] staticDijkstra(int[][] graph, int source) {
+        int[] offsets = graph[0], targets = graph[1], minutes = graph[2];
+        int[] dist = new int[offsets.length - 1];
+        Arrays.fill(dist, INF);
+        dist[source] = 0;
+        SearchScratch.LongHeap pq = new SearchScratch.LongHeap();
+        pq.push(source);
+        while (!pq.isEmpty()) {
+            long top = pq.poll();
+            int u = (int) top;
+            if ((int) (top >>> 32) > dist[u]) continue;
+            for (int i = offsets[u]; i < offsets[u + 1]; i++) {
+                int d = dist[u] + minutes[i];
+                if (d < dist[targets[i]]) {
+                    dist[targets[i]] = d;
+                    pq.push(((long) d << 32) | targets[i]);
+                }
+            }
+        }
+        return dist;
+    }
+
+    // -------------------- Query --------------------
+    @Override
+    public RouteFinder.PathResult findRoute(String fromCode, String toCode, SearchBudget budget) {
+        RouteFinder.PathResult result = new RouteFinder.PathResult();
+        int from = tt.stationId(fromCode);
+        int to = tt.stationId(toCode);
+        if (from == -1 || to == -1 || from == to) return result;
+
+        SearchScratch scratch = SearchScratch.acquire(tt);
+        try {
+            search(scratch, from, to, budget, result);
+        } finally {
+            SearchScratch.release(scratch);
+        }
+        return result;
+    }
+
+    private void search(SearchScratch sc, int from, int to, SearchBudget budget, RouteFinder.PathResult result) {
+        int[] arrival = sc.arrival, bound = sc.bound;
+        int[] boardStop = sc.boardStop, boardEdge = sc.boardEdge, alightEdge = sc.alightEdge;
+        int[] boardedEdge = sc.tripEdge; // earliest point each train was boarded at, valid once tripSeen
+        SearchScratch.LongHeap queue = sc.heap; // (arrival + lower bound) << 32 | station
+
+        sc.see(from);
+        arrival[from] = Integer.MIN_VALUE;
+        int expanded = 0;
+        int u = from;
+
+        while (u != -1) {
+            sc.settle(u);
+            expanded++;
+            if (u == to) break;
+            if ((expanded & 255) == 0 && budget.exhausted()) {
+                result.partial = true;
+                break;
+            }
+
+            int ready = u == from ? Integer.MIN_VALUE : arrival[u] + RouteFinder.MIN_TRANSFER_MINUTES;
+            for (int e = firstDepartureAtOrAfter(u, ready); e < tt.offsets.get(u + 1); e++) {
+                int train = tt.trainIdx.get(e);
+                int prior = sc.tripSeen(train) ? boardedEdge[train] : -1;
+                // a train boarded further back already relaxed everything from here on
+                if (prior != -1 && edgeSeq[prior] <= edgeSeq[e]) continue;
+
+                for (int h = e; h != -1 && h != prior; h = tt.edgeNext.get(h)) {
+                    int v = tt.targets.get(h);
+                    int arr = tt.arrEpochMin.get(h);
+                    if (!sc.seen(v)) {
+                        sc.see(v);
+                        arrival[v] = INF;
+                        bound[v] = lowerBound(v, to);
+                    }
+                    if (!sc.settled(v) && arr < arrival[v]) {
+                        arrival[v] = arr;
+                        boardStop[v] = u;
+                        boardEdge[v] = e;
+                        alightEdge[v] = h;
+                        queue.push(((long) (arr + bound[v]) << 32) | v);
+                    }
+                }
+                sc.seeTrip(train);
+                boardedEdge[train] = e;
+            }
+
+            u = -1;
+            while (!queue.isEmpty()) {
+                int v = (int) queue.poll();
+                if (!sc.settled(v)) {
+                    u = v;
+                    break;
+                }
+            }
+        }
+
+        result.expandedNodes = expanded;
+        // cut short, the target's arrival is only tentative, but it was reached from a settled station
+        if (!sc.seen(to)) return;
+
+        // boarding stations back from the target, then legs in travel order
+        int[] chain = sc.queue;
+        int len = 0;
+        for (int station = to; station != from; station = boardStop[station]) chain[len++] = station;
+        for (int i = len - 1; i >= 0; i--) {
+            int station = chain[i];
+            int s = boardStop[station];
+            for (int h = boardEdge[station]; ; h = tt.edgeNext.get(h)) {
+                result.bestPath.add(tt.edgeLeg(s, h));
+                if (h == alightEdge[station]) break;
+                s = tt.targets.get(h);
+            }
+        }
+        // the search boards the first train leading on; a later one may reach the same arrival
+        long departure = tt.depEpochMin.get(boardEdge[chain[len - 1]]);
+        int target = arrival[to];
+        if (backward.latestJourney(sc, new int[]{from}, new int[]{Integer.MIN_VALUE}, new int[]{0}, to, target, budget, result) != -1)
+            departure = tt.depTime.get(sc.boardEdge[from]);
+        else result.partial = true;
+        result.totalMinutes = target - departure;
+    }
+
+    /** First CSR edge out of station s departing at or after the given minute. */
+    private int firstDepartureAtOrAfter(int s, int minute) {
+        int lo = tt.offsets.get(s), hi = tt.offsets.get(s + 1);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (tt.depEpochMin.get(mid) < minute) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,102 @@
+package app;
+
+import java.util.Arrays;
+
+/**
+ * Door-to-door routing between two points rather than two stations. The
+ * nearest few stations at each end become candidates, each with a walk or
+ * drive time from the point, and one many-to-many connection scan picks the
+ * best pair, access and egress included, instead of a search per pair.
+ *
+ * Access times are straight-line estimates with a street detour factor:
+ * walking up to a mile, driving (plus time to park) beyond it.
+ */
+public class AccessRouter {
+
+    static final int CANDIDATES = Integer.getInteger("access.candidates", 5); // stations tried at each end
+    static final double MAX_ACCESS_MILES = Double.parseDouble(System.getProperty("access.maxMiles", "50"));
+    static final double WALK_MILES = 1.0;
+    static final double WALK_MPH = 3.0;
+    static final double DRIVE_MPH = 30.0;
+    static final int DRIVE_MINUTES = 10; // parking or drop-off, getting to the platform
+    static final double DETOUR = 1.3;    // streets against a straight line
+
+    /** Getting between the point and a station. */
+    public static class Access {
+        public String mode; // "walk" or "drive"
+        public String code;
+        public double miles;
+        public int minutes;
+    }
+
+    /** Trains plus the access legs at each end; path is empty when no candidate pair is connected. */
+    public static class Trip {
+        public RouteFinder.PathResult path;
+        public Access access;
+        public Access egress;
+        public int departure; // leaving the start point, epoch minutes
+        public int arrival;   // reaching the end point
+        public long totalMinutes;
+    }
+
+    private final Timetable tt;
+    private final NearbyStations nearby;
+    private final ConnectionScan scan;
+
+    public AccessRouter(Timetable tt, NearbyStations nearby) {
+        this.tt = tt;
+        this.nearby = nearby;
+        this.scan = new ConnectionScan(tt);
+    }
+
+    /**
+     * Best trip between two coordinates. With a departure minute the trip
+     * starts then; with {@link Timetable#NO_TIME} it starts just in time for
+     * its first train.
+     */
+    public Trip route(double fromLat, double fromLon, double toLat, double toLon, int departAfter, SearchBudget budget) {
+        int[] origins = candidates(fromLat, fromLon);
+        int[] targets = candidates(toLat, toLon);
+        int[] accessMinutes = new int[origins.length], egressMinutes = new int[targets.length];
+        for (int i = 0; i < origins.length; i++) accessMinutes[i] = access(origins[i], fromLat, fromLon).minutes;
+        for (int j = 0; j < targets.length; j++) egressMinutes[j] = access(targets[j], toLat, toLon).minutes;
+
+        ConnectionScan.Reach reach = scan.findRoute(origins, accessMinutes, targets, egressMinutes, departAfter, budget);
+        Trip trip = new Trip();
+        trip.path = reach.path;
+        if (reach.target == -1) return trip;
+
+        trip.access = access(reach.origin, fromLat, fromLon);
+        trip.egress = access(reach.target, toLat, toLon);
+        trip.departure = reach.departure - trip.access.minutes;
+        trip.arrival = reach.arrival + trip.egress.minutes;
+        trip.totalMinutes = trip.arrival - trip.departure;
+        return trip;
+    }
+
+    /** The nearest few stations within reach of the point, and always the nearest one. */
+    int[] candidates(double lat, double lon) {
+        int[] near = nearby.nearest(lat, lon, CANDIDATES);
+        int n = 0;
+        for (int s : near) {
+            ApiHandler.StationInfo info = tt.stations[s];
+            if (n == 0 || RouteFinder.haversineDistance(lat, lon, info.lat, info.lon) <= MAX_ACCESS_MILES) near[n++] = s;
+        }
+        return Arrays.copyOf(near, n);
+    }
+
+    Access access(int station, double lat, double lon) {
+        ApiHandler.StationInfo info = tt.stations[station];
+        Access a = new Access();
+        a.code = info.code;
+        a.miles = RouteFinder.haversineDistance(lat, lon, info.lat, info.lon) * DETOUR;
+        if (a.miles <= WALK_MILES) {
+            a.mode = "walk";
+            a.minutes = (int) Math.ceil(a.miles / WALK_MPH * 60);
+        } else {
+            a.mode = "drive";
+            a.minutes = DRIVE_MINUTES + (int) Math.ceil(a.miles / DRIVE_MPH * 60);
+        }
+        return a;
+    }
+}
@@ -2,13 +2,35 @@ package app;
 
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.FileReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleConsumer;
+import java.util.stream.IntStream;
 
 public class ApiHandler {
 
+    static final String ROUTES_FILE = "src/amtrak-api/_site/routes.json";
+    static final String STATIONS_FILE = "src/amtrak-api/_site/stations.json";
+
     private static final Gson gson = new Gson();
 
     /** ---------------------- */
@@ -56,18 +78,333 @@ public class ApiHandler {
     /** ---------------------- */
 
     public static List<Route> loadRoutes() throws Exception {
+        return loadRoutes(Path.of(ROUTES_FILE));
+    }
+
+    public static List<Route> loadRoutes(Path file) throws Exception {
+        long start = System.nanoTime();
         Type listType = new TypeToken<List<Route>>(){}.getType();
-        return gson.fromJson(
-                new FileReader("src/amtrak-api/_site/routes.json"),
-                listType
-        );
+        try (FileReader reader = new FileReader(file.toFile())) {
+            List<Route> routes = gson.fromJson(reader, listType);
+            Metrics.phase("parse", start);
+            return routes;
+        }
     }
 
     public static List<StationInfo> loadAllStations() throws Exception {
-        Type listType = new TypeToken<List<StationInfo>>(){}.getType();
-        return gson.fromJson(
-                new FileReader("src/amtrak-api/_site/stations.json"),
-                listType
-        );
+        List<StationInfo> out = new ArrayList<>();
+        Map<String, String> pool = new HashMap<>();
+        try (JsonReader in = open(Path.of(STATIONS_FILE))) {
+            in.beginArray();
+            while (in.hasNext()) out.add(readStationInfo(in, pool));
+            in.endArray();
+        }
+        return out;
+    }
+
+    /** ---------------------- */
+    /**   Streaming loaders    */
+    /** ---------------------- */
+
+    /**
+     * Builds the routing timetable straight from routes.json without creating
+     * the Route/Train/Station tree: timestamps go to epoch minutes as they are
+     * read, each station's info is kept once and repeated strings are shared.
+     */
+    public static Timetable streamTimetable() throws IOException {
+        return streamTimetable(Path.of(ROUTES_FILE));
+    }
+
+    public static Timetable streamTimetable(Path file) throws IOException {
+        return streamInto(file, new Timetable.Builder()).build();
+    }
+
+    /**
+     * Streams a routes.json-shaped file into a builder without freezing it.
+     *
+     * With more than one core the file is read whole and cut at route
+     * boundaries by a byte scan; slices of routes are parsed side by side into
+     * their own builders and appended in file order, so the result matches
+     * the one-pass read exactly.
+     */
+    static Timetable.Builder streamInto(Path file, Timetable.Builder b) throws IOException {
+        return streamInto(file, b, done -> {});
+    }
+
+    /** As above, reporting the fraction of the file parsed so far, from whichever thread parsed it. */
+    static Timetable.Builder streamInto(Path file, Timetable.Builder b, DoubleConsumer progress) throws IOException {
+        long start = System.nanoTime();
+        if (Runtime.getRuntime().availableProcessors() == 1) {
+            Map<String, String> pool = new HashMap<>();
+            InputStream counted = new ProgressStream(Files.newInputStream(file), Files.size(file), progress);
+            try (JsonReader in = new JsonReader(new BufferedReader(new InputStreamReader(counted, StandardCharsets.UTF_8)))) {
+                in.beginArray();
+                while (in.hasNext()) readRoute(in, b, pool);
+                in.endArray();
+            }
+        } else {
+            byte[] json = Files.readAllBytes(file);
+            int[] bounds = routeBounds(json);
+            int[] cuts = cutBySize(bounds, Timetable.slices(bounds.length / 2, 1));
+            AtomicLong parsed = new AtomicLong();
+            List<Timetable.Builder> parts;
+            try {
+                parts = IntStream.range(0, cuts.length - 1).parallel()
+                        .mapToObj(i -> {
+                            Timetable.Builder part = parseRoutes(json, bounds, cuts[i], cuts[i + 1]);
+                            long bytes = bounds[2 * cuts[i + 1] - 1] - bounds[2 * cuts[i]];
+                            progress.accept((double) parsed.addAndGet(bytes) / json.length);
+                            return part;
+                        })
+                        .toList();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            for (Timetable.Builder part : parts) b.append(part);
+        }
+        Metrics.phase("parse", start);
+        return b;
+    }
+
+    /** Parses routes [first, last) of the file into a fresh builder. */
+    private static Timetable.Builder parseRoutes(byte[] json, int[] bounds, int first, int last) {
+        Timetable.Builder b = new Timetable.Builder();
+        Map<String, String> pool = new HashMap<>();
+        for (int r = first; r < last; r++) {
+            int from = bounds[2 * r], to = bounds[2 * r + 1];
+            try (JsonReader in = new JsonReader(new InputStreamReader(
+                    new ByteArrayInputStream(json, from, to - from), StandardCharsets.UTF_8))) {
+                readRoute(in, b, pool);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return b;
+    }
+
+    /**
+     * Start and end offsets of each object directly inside the top-level
+     * array, as pairs. Only quotes, escapes and brackets are looked at; in
+     * UTF-8 those bytes never occur inside a multi-byte character.
+     */
+    private static int[] routeBounds(byte[] json) {
+        int[] bounds = new int[128];
+        int n = 0, depth = 0;
+        boolean inString = false;
+        for (int i = 0; i < json.length; i++) {
+            byte c = json[i];
+            if (inString) {
+                if (c == '\\') i++;
+                else if (c == '"') inString = false;
+            } else if (c == '"') {
+                inString = true;
+            } else if (c == '{' || c == '[') {
+                if (depth == 1 && c == '{') {
+                    if (n == bounds.length) bounds = Arrays.copyOf(bounds, n * 2);
+                    bounds[n++] = i;
+                }
+                depth++;
+            } else if (c == '}' || c == ']') {
+                depth--;
+                if (depth == 1 && c == '}') bounds[n++] = i + 1;
+            }
+        }
+        return Arrays.copyOf(bounds, n & ~1);
+    }
+
+    /** Route indexes splitting the routes into about the given number of runs of similar byte size. */
+    private static int[] cutBySize(int[] bounds, int slices) {
+        int routes = bounds.length / 2;
+        if (routes == 0) return new int[]{0};
+        long total = bounds[bounds.length - 1] - bounds[0];
+        int[] cuts = new int[slices + 1];
+        int k = 1;
+        for (int r = 1; r < routes && k < slices; r++)
+            if (bounds[2 * r] - bounds[0] >= total * k / slices) cuts[k++] = r;
+        cuts[k] = routes;
+        return Arrays.copyOf(cuts, k + 1);
+    }
+
+    /** Counts bytes as the parser pulls them and reports each whole percent of the file. */
+    private static final class ProgressStream extends FilterInputStream {
+        private final long size;
+        private final DoubleConsumer progress;
+        private long read;
+        private int percent;
+
+        ProgressStream(InputStream in, long size, DoubleConsumer progress) {
+            super(in);
+            this.size = Math.max(1, size);
+            this.progress = progress;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = super.read();
+            if (c >= 0) advance(1);
+            return c;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            int n = super.read(buf, off, len);
+            if (n > 0) advance(n);
+            return n;
+        }
+
+        private void advance(int n) {
+            read += n;
+            int p = (int) (read * 100 / size);
+            if (p > percent) {
+                percent = p;
+                progress.accept(p / 100.0);
+            }
+        }
+    }
+
+    private static void readRoute(JsonReader in, Timetable.Builder b, Map<String, String> pool) throws IOException {
+        in.beginObject();
+        while (in.hasNext()) {
+            if (in.nextName().equals("trains") && in.peek() == JsonToken.BEGIN_ARRAY) {
+                in.beginArray();
+                while (in.hasNext()) readTrain(in, b, pool);
+                in.endArray();
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+    }
+
+    private static JsonReader open(Path file) throws IOException {
+        BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+        return new JsonReader(reader);
+    }
+
+    private static void readTrain(JsonReader in, Timetable.Builder b, Map<String, String> pool) throws IOException {
+        long id = 0;
+        int number = 0;
+        String heading = null, route = null;
+        boolean begun = false;
+
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "id" -> id = in.nextLong();
+                case "number" -> number = in.nextInt();
+                case "heading" -> heading = intern(pool, in.nextString());
+                case "route" -> route = intern(pool, in.nextString());
+                case "stations" -> {
+                    // the header fields come before the stop list in the API output
+                    b.beginTrain(id, number, heading, route);
+                    begun = true;
+                    in.beginArray();
+                    while (in.hasNext()) readStop(in, b, pool);
+                    in.endArray();
+                }
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        if (!begun) b.beginTrain(id, number, heading, route);
+    }
+
+    private static void readStop(JsonReader in, Timetable.Builder b, Map<String, String> pool) throws IOException {
+        String arrActual = null, arrScheduled = null, depActual = null, depScheduled = null;
+        int station = -1;
+        boolean bus = false;
+
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "arrivalActual" -> arrActual = in.nextString();
+                case "arrivalScheduled" -> arrScheduled = in.nextString();
+                case "departureActual" -> depActual = in.nextString();
+                case "departureScheduled" -> depScheduled = in.nextString();
+                case "bus" -> bus = in.nextBoolean();
+                case "station" -> station = readStopStation(in, b, pool);
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+
+        if (station == -1) return;
+        int arr = Timetable.epochMinutes(arrScheduled), dep = Timetable.epochMinutes(depScheduled);
+        b.stop(station,
+                arrActual != null ? Timetable.epochMinutes(arrActual) : arr,
+                depActual != null ? Timetable.epochMinutes(depActual) : dep, bus, arr, dep);
+    }
+
+    /**
+     * Station id of a stop's embedded station. The details are only read the
+     * first time a code is seen; after that the rest of the object is skipped.
+     */
+    private static int readStopStation(JsonReader in, Timetable.Builder b, Map<String, String> pool) throws IOException {
+        StationInfo info = new StationInfo();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+            } else if (name.equals("code")) {
+                info.code = in.nextString();
+                if (b.hasStation(info.code)) {
+                    while (in.hasNext()) {
+                        in.nextName();
+                        in.skipValue();
+                    }
+                    in.endObject();
+                    return b.stationId(info.code);
+                }
+            } else {
+                readStationField(in, name, info, pool);
+            }
+        }
+        in.endObject();
+        if (info.code == null) return -1;
+        info.code = intern(pool, info.code);
+        return b.station(info);
+    }
+
+    private static StationInfo readStationInfo(JsonReader in, Map<String, String> pool) throws IOException {
+        StationInfo info = new StationInfo();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) in.nextNull();
+            else readStationField(in, name, info, pool);
+        }
+        in.endObject();
+        return info;
+    }
+
+    private static void readStationField(JsonReader in, String name, StationInfo info, Map<String, String> pool) throws IOException {
+        switch (name) {
+            case "code" -> info.code = intern(pool, in.nextString());
+            case "name" -> info.name = intern(pool, in.nextString());
+            case "city" -> info.city = intern(pool, in.nextString());
+            case "state" -> info.state = intern(pool, in.nextString());
+            case "address1" -> info.address1 = intern(pool, in.nextString());
+            case "address2" -> info.address2 = intern(pool, in.nextString());
+            case "zip" -> info.zip = intern(pool, in.nextString());
+            case "lat" -> info.lat = in.nextDouble();
+            case "lon" -> info.lon = in.nextDouble();
+            default -> in.skipValue();
+        }
+    }
+
+    private static String intern(Map<String, String> pool, String s) {
+        String shared = pool.putIfAbsent(s, s);
+        return shared != null ? shared : s;
     }
 }
@@ -0,0 +1,157 @@
+package app;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Micro-benchmarks for the hot paths: JSON load, station map, timetable
+ * build, route search (direct, one transfer, no route) and pricing. Runs
+ * against the checked-in fixture and synthetic networks scaled 10x and 100x.
+ *
+ * Each case gets warmup rounds, then timed rounds; the report shows
+ * throughput, per-op latency percentiles and bytes allocated per op (from the
+ * thread allocation counter, the same source JMH's GC profiler uses).
+ *
+ *   java -cp "lib/gson-2.10.1.jar:src/main/java" app.Benchmarks [fixture.json] [scales...]
+ *
+ * -Dbench.warmupMs and -Dbench.measureMs set the time per phase (3 s each).
+ */
+public class Benchmarks {
+
+    static final String FIXTURE = "bench/routes-fixture.json";
+    private static final long WARMUP_NANOS = Long.getLong("bench.warmupMs", 3000L) * 1_000_000L;
+    private static final long MEASURE_NANOS = Long.getLong("bench.measureMs", 3000L) * 1_000_000L;
+
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /** Keeps results reachable so the JIT can't drop the benchmarked work. */
+    private static Object sink;
+
+    public static void main(String[] args) throws Exception {
+        Path fixture = Path.of(args.length > 0 ? args[0] : FIXTURE);
+        int[] scales = args.length > 1
+                ? Arrays.stream(args, 1, args.length).mapToInt(Integer::parseInt).toArray()
+                : new int[]{10, 100};
+
+        List<ApiHandler.Route> routes = ApiHandler.loadRoutes(fixture);
+        System.out.println("fixture: " + fixture + ", scales: " + Arrays.toString(scales));
+        System.out.printf("%-34s %12s %10s %10s %10s %10s %12s%n",
+                "benchmark", "ops/s", "p50 us", "p90 us", "p99 us", "max us", "alloc B/op");
+        run("fixture", routes, fixture);
+        for (int scale : scales)
+            run("synthetic x" + scale, SyntheticNetwork.generate(150, 12, 4, scale, 42), null);
+    }
+
+    private static void run(String name, List<ApiHandler.Route> routes, Path file) throws Exception {
+        if (file != null) {
+            bench(name + " loadRoutes", () -> call(() -> ApiHandler.loadRoutes(file)));
+            bench(name + " streamTimetable", () -> call(() -> ApiHandler.streamTimetable(file)));
+        }
+        bench(name + " populateStationsMap", () -> {
+            RouteFinder.populateStationsMap(routes);
+            return null;
+        });
+        bench(name + " buildLegGraph", () -> Timetable.fromRoutes(routes));
+
+        RouteFinder.buildLegGraph(routes);
+        RoutingSnapshot snap = RouteFinder.snapshot();
+        String[][] pairs = pickPairs(snap, routes);
+        String[] labels = {"route direct", "route one-transfer", "route no-route"};
+        for (int i = 0; i < pairs.length; i++) {
+            if (pairs[i] == null) {
+                System.out.printf("%-34s %s%n", name + " " + labels[i], "(no such pair in this network)");
+                continue;
+            }
+            String from = pairs[i][0], to = pairs[i][1];
+            bench(name + " " + labels[i], () -> snap.findRoute(from, to));
+        }
+        String from = pairs[0] != null ? pairs[0][0] : snap.timetable().codes[0];
+        String to = pairs[0] != null ? pairs[0][1] : snap.timetable().codes[1];
+        bench(name + " calculateLowestPrice", () -> snap.lowestPrice(from, to, "business"));
+    }
+
+    private interface Call {
+        Object run() throws Exception;
+    }
+
+    private static Object call(Call c) {
+        try {
+            return c.run();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Direct, one-transfer and no-route station pairs, any of which may be null if the network has none. */
+    static String[][] pickPairs(RoutingSnapshot snap, List<ApiHandler.Route> routes) {
+        String[][] out = new String[3][];
+        ApiHandler.Train longest = null;
+        for (ApiHandler.Route r : routes)
+            for (ApiHandler.Train t : r.trains)
+                if (longest == null || t.stations.size() > longest.stations.size()) longest = t;
+        if (longest != null && longest.stations.size() > 1)
+            out[0] = new String[]{longest.stations.get(0).station.code,
+                    longest.stations.get(longest.stations.size() - 1).station.code};
+
+        String[] codes = snap.timetable().codes;
+        Random rnd = new Random(7);
+        for (int tries = 0; tries < 5000 && (out[1] == null || out[2] == null); tries++) {
+            String a = codes[rnd.nextInt(codes.length)], b = codes[rnd.nextInt(codes.length)];
+            if (a.equals(b)) continue;
+            RouteFinder.PathResult r = snap.findRoute(a, b);
+            if (r.bestPath.isEmpty()) {
+                if (out[2] == null) out[2] = new String[]{a, b};
+            } else if (out[1] == null && r.bestPath.stream().map(l -> l.train).distinct().count() == 2) {
+                out[1] = new String[]{a, b};
+            }
+        }
+        return out;
+    }
+
+    // -------------------- Measurement --------------------
+    private static void bench(String name, Supplier<Object> op) {
+        // the loaders log every build, keep that out of the report
+        java.io.PrintStream out = System.out;
+        System.setOut(new java.io.PrintStream(java.io.OutputStream.nullOutputStream()));
+        try {
+            measure(name, op, out);
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    private static void measure(String name, Supplier<Object> op, java.io.PrintStream report) {
+        long end = System.nanoTime() + WARMUP_NANOS;
+        while (System.nanoTime() < end) sink = op.get();
+
+        long[] samples = new long[1024];
+        int count = 0;
+        long thread = Thread.currentThread().getId();
+        long allocStart = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        end = start + MEASURE_NANOS;
+        long now = start;
+        while (now < end) {
+            long t0 = System.nanoTime();
+            sink = op.get();
+            now = System.nanoTime();
+            if (count == samples.length) samples = Arrays.copyOf(samples, count * 2);
+            samples[count++] = now - t0;
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - allocStart;
+
+        Arrays.sort(samples, 0, count);
+        report.printf("%-34s %12.1f %10.1f %10.1f %10.1f %10.1f %12d%n", name,
+                count / ((now - start) / 1e9),
+                percentile(samples, count, 0.50), percentile(samples, count, 0.90),
+                percentile(samples, count, 0.99), samples[count - 1] / 1e3,
+                allocated / count);
+    }
+
+    private static double percentile(long[] sorted, int count, double p) {
+        return sorted[Math.min(count - 1, (int) Math.ceil(p * count) - 1)] / 1e3;
+    }
+}
@@ -0,0 +1,91 @@
+package app;
+
+/**
+ * The original router: the path with the fewest trains, ignoring connection
+ * times, from a breadth-first search over the timetable's CSR adjacency.
+ * Each BFS step boards a train and rides it stop by stop. Kept selectable for
+ * comparison with {@link ConnectionScan}.
+ */
+public class BfsEngine implements RouteEngine {
+
+    private final Timetable tt;
+
+    public BfsEngine(Timetable tt) {
+        this.tt = tt;
+    }
+
+    @Override
+    public RouteEngine retimed(Timetable retimed) {
+        return new BfsEngine(retimed);
+    }
+
+    @Override
+    public RouteFinder.PathResult findRoute(String fromCode, String toCode, SearchBudget budget) {
+        RouteFinder.PathResult result = new RouteFinder.PathResult();
+        int from = tt.stationId(fromCode);
+        int to = tt.stationId(toCode);
+        if (from == -1 || to == -1 || from == to) return result;
+
+        SearchScratch scratch = SearchScratch.acquire(tt);
+        try {
+            search(scratch, from, to, budget, result);
+        } finally {
+            SearchScratch.release(scratch);
+        }
+        return result;
+    }
+
+    private void search(SearchScratch sc, int from, int to, SearchBudget budget, RouteFinder.PathResult result) {
+        int[] depth = sc.arrival;       // trains taken to reach the station, valid once seen
+        int[] boardEdge = sc.boardEdge;  // edge the train was boarded on
+        int[] alightEdge = sc.alightEdge; // last edge ridden into the station
+        int[] boardStation = sc.boardStop;
+        int[] queue = sc.queue;
+        sc.see(from);
+        depth[from] = 0;
+
+        int head = 0, tail = 0;
+        queue[tail++] = from;
+
+        while (head < tail && !sc.seen(to)) {
+            if ((head & 255) == 0 && budget.exhausted()) {
+                result.partial = true;
+                break;
+            }
+            int s = queue[head++];
+            if (depth[s] >= RouteFinder.MAX_LEGS) continue;
+
+            for (int e = tt.offsets.get(s); e < tt.offsets.get(s + 1); e++) {
+                // ride this train onward, every stop is one more boarding away
+                for (int h = e; h != -1; h = tt.edgeNext.get(h)) {
+                    int stop = tt.targets.get(h);
+                    if (sc.seen(stop)) continue;
+                    sc.see(stop);
+                    depth[stop] = depth[s] + 1;
+                    boardEdge[stop] = e;
+                    alightEdge[stop] = h;
+                    boardStation[stop] = s;
+                    queue[tail++] = stop;
+                }
+            }
+        }
+
+        result.expandedNodes = head;
+        if (!sc.seen(to)) return;
+
+        // the queue is done with: reuse it for the boarding stations back from the target
+        int len = 0;
+        for (int station = to; station != from; station = boardStation[station]) queue[len++] = station;
+        for (int i = len - 1; i >= 0; i--) {
+            int station = queue[i];
+            int s = boardStation[station];
+            for (int h = boardEdge[station]; ; h = tt.edgeNext.get(h)) {
+                RouteFinder.Leg leg = tt.edgeLeg(s, h);
+                result.bestPath.add(leg);
+                result.totalMinutes += leg.minutes;
+                if (h == alightEdge[station]) break;
+                s = tt.targets.get(h);
+            }
+        }
+    }
+}
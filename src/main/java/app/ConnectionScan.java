@@ -0,0 +1,321 @@
+package app;
+
+import java.nio.IntBuffer;
+
+/**
+ * Earliest-arrival routing with the Connection Scan Algorithm.
+ *
+ * The timetable's connections are sorted by departure time, so a query is a
+ * single linear pass over the array: a connection is usable if its train was
+ * already boarded or if the rider is at the departure station early enough to
+ * change trains.
+ */
+public class ConnectionScan implements RouteEngine {
+
+    private static final int INF = Integer.MAX_VALUE;
+
+    private final Timetable tt;
+
+    public ConnectionScan(Timetable tt) {
+        this.tt = tt;
+    }
+
+    @Override
+    public RouteEngine retimed(Timetable retimed) {
+        return new ConnectionScan(retimed);
+    }
+
+    @Override
+    public RouteFinder.PathResult findRoute(String fromCode, String toCode, SearchBudget budget) {
+        RouteFinder.PathResult result = new RouteFinder.PathResult();
+        int from = tt.stationId(fromCode);
+        int to = tt.stationId(toCode);
+        if (from == -1 || to == -1 || from == to) return result;
+
+        SearchScratch scratch = SearchScratch.acquire(tt);
+        try {
+            scan(scratch, from, to, budget, result);
+        } finally {
+            SearchScratch.release(scratch);
+        }
+        return result;
+    }
+
+    private void scan(SearchScratch sc, int from, int to, SearchBudget budget, RouteFinder.PathResult result) {
+        IntBuffer depStop = tt.depStop, arrStop = tt.arrStop, depTime = tt.depTime, arrTime = tt.arrTime, trip = tt.trip;
+        int[] earliest = sc.arrival;     // valid once seen, otherwise not reached
+        int[] enterConn = sc.boardEdge;
+        int[] exitConn = sc.alightEdge;
+        int[] boardedAt = sc.tripEdge;   // valid once tripSeen
+        sc.see(from);
+        earliest[from] = Integer.MIN_VALUE;
+        int target = INF;
+
+        int c = 0, n = depTime.limit();
+        scan:
+        while (c < n) {
+            if (budget.exhausted()) {
+                // stopped early: whatever reached the target so far is still a real journey
+                result.partial = true;
+                break;
+            }
+            // budget checks stay out of the inner loop: their volatile reads would
+            // make every column get() reload its buffer's fields
+            for (int end = Math.min(n, c + 1024); c < end; c++) {
+                int dep = depTime.get(c);
+                if (dep >= target) break scan;
+
+                int t = trip.get(c);
+                if (!sc.tripSeen(t)) {
+                    int s = depStop.get(c);
+                    if (!sc.seen(s)) continue;
+                    // changing trains needs a buffer, the first boarding does not
+                    if (s != from && (long) earliest[s] + RouteFinder.MIN_TRANSFER_MINUTES > dep) continue;
+                    sc.seeTrip(t);
+                    boardedAt[t] = c;
+                }
+
+                int a = arrStop.get(c);
+                if (!sc.seen(a) || arrTime.get(c) < earliest[a]) {
+                    sc.see(a);
+                    earliest[a] = arrTime.get(c);
+                    enterConn[a] = boardedAt[t];
+                    exitConn[a] = c;
+                    if (a == to) target = arrTime.get(c);
+                }
+            }
+        }
+
+        result.expandedNodes = c;
+        if (target == INF) return;
+
+        // walk back from the destination one train at a time, then emit the trains in order
+        int[] chain = sc.queue;
+        int len = 0;
+        for (int station = to; station != from; station = depStop.get(enterConn[station])) chain[len++] = station;
+        for (int i = len - 1; i >= 0; i--) {
+            int station = chain[i];
+            for (int k = enterConn[station]; ; k = tt.nextInTrip.get(k)) {
+                result.bestPath.add(tt.connectionLeg(k));
+                if (k == exitConn[station]) break;
+            }
+        }
+
+        // door to door, waits included, from the last departure that still makes the arrival
+        int first = enterConn[chain[len - 1]];
+        if (latestJourney(sc, new int[]{from}, new int[]{Integer.MIN_VALUE}, new int[]{0}, to, target, budget, result) != -1)
+            first = sc.boardEdge[from];
+        else result.partial = true;
+        result.totalMinutes = target - depTime.get(first);
+    }
+
+    // -------------------- Many to many --------------------
+    /** Result of {@link #findRoute(int[], int[], int[], int[], int, SearchBudget)}: the trains and which candidates they join. */
+    static final class Reach {
+        final RouteFinder.PathResult path = new RouteFinder.PathResult();
+        int origin = -1, target = -1;  // station ids; -1 when no candidate pair is connected
+        int departure, arrival;        // first boarding and last alighting, epoch minutes
+    }
+
+    /**
+     * Best door-to-door journey from any of several origin stations to any of
+     * several targets, in one scan instead of one per pair. Getting to
+     * origins[i] takes accessMinutes[i] and on from targets[j] takes
+     * egressMinutes[j]; the scan minimises arrival plus egress. With a
+     * departure minute the rider sets off then; with NO_TIME, whenever suits
+     * the first train, as in the single-pair search.
+     */
+    Reach findRoute(int[] origins, int[] accessMinutes, int[] targets, int[] egressMinutes,
+                    int departAfter, SearchBudget budget) {
+        Reach reach = new Reach();
+        SearchScratch scratch = SearchScratch.acquire(tt);
+        try {
+            scanMany(scratch, origins, accessMinutes, targets, egressMinutes, departAfter, budget, reach);
+        } finally {
+            SearchScratch.release(scratch);
+        }
+        return reach;
+    }
+
+    private void scanMany(SearchScratch sc, int[] origins, int[] accessMinutes, int[] targets, int[] egressMinutes,
+                          int departAfter, SearchBudget budget, Reach reach) {
+        IntBuffer depStop = tt.depStop, arrStop = tt.arrStop, depTime = tt.depTime, arrTime = tt.arrTime, trip = tt.trip;
+        int[] earliest = sc.arrival;
+        int[] enterConn = sc.boardEdge;  // -1 at a station reached on foot or by car
+        int[] exitConn = sc.alightEdge;
+        int[] boardedAt = sc.tripEdge;
+        int[] egress = sc.bound;         // valid at target stations, which are marked settled
+        RouteFinder.PathResult result = reach.path;
+
+        int firstReady = INF;
+        int[] readyAt = new int[origins.length];
+        for (int i = 0; i < origins.length; i++) {
+            int s = origins[i];
+            int ready = departAfter == Timetable.NO_TIME ? Integer.MIN_VALUE : departAfter + accessMinutes[i];
+            readyAt[i] = ready;
+            if (sc.seen(s) && earliest[s] <= ready) continue;
+            sc.see(s);
+            earliest[s] = ready;
+            enterConn[s] = -1;
+            firstReady = Math.min(firstReady, ready);
+        }
+        for (int j = 0; j < targets.length; j++) {
+            int s = targets[j];
+            if (sc.settled(s) && egress[s] <= egressMinutes[j]) continue;
+            sc.settle(s);
+            egress[s] = egressMinutes[j];
+        }
+        int best = INF, bestTarget = -1;
+
+        int c = lowerBound(depTime, firstReady), n = depTime.limit();
+        int scanned = 0;
+        scan:
+        while (c < n) {
+            if (budget.exhausted()) {
+                result.partial = true;
+                break;
+            }
+            for (int end = Math.min(n, c + 1024); c < end; c++, scanned++) {
+                int dep = depTime.get(c);
+                if (dep >= best) break scan;
+
+                int t = trip.get(c);
+                if (!sc.tripSeen(t)) {
+                    int s = depStop.get(c);
+                    if (!sc.seen(s)) continue;
+                    long ready = enterConn[s] == -1 ? earliest[s] : (long) earliest[s] + RouteFinder.MIN_TRANSFER_MINUTES;
+                    if (ready > dep) continue;
+                    sc.seeTrip(t);
+                    boardedAt[t] = c;
+                }
+
+                int a = arrStop.get(c);
+                if (!sc.seen(a) || arrTime.get(c) < earliest[a]) {
+                    sc.see(a);
+                    earliest[a] = arrTime.get(c);
+                    enterConn[a] = boardedAt[t];
+                    exitConn[a] = c;
+                    if (sc.settled(a) && (long) arrTime.get(c) + egress[a] < best) {
+                        best = arrTime.get(c) + egress[a];
+                        bestTarget = a;
+                    }
+                }
+            }
+        }
+
+        result.expandedNodes = scanned;
+        if (bestTarget == -1) return;
+
+        int[] chain = sc.queue;
+        int len = 0;
+        int station = bestTarget;
+        for (; enterConn[station] != -1; station = depStop.get(enterConn[station])) chain[len++] = station;
+        for (int i = len - 1; i >= 0; i--) {
+            int at = chain[i];
+            for (int k = enterConn[at]; ; k = tt.nextInTrip.get(k)) {
+                result.bestPath.add(tt.connectionLeg(k));
+                if (k == exitConn[at]) break;
+            }
+        }
+        reach.origin = station;
+        reach.target = bestTarget;
+        reach.departure = depTime.get(enterConn[chain[len - 1]]);
+        reach.arrival = earliest[bestTarget];
+        int start = latestJourney(sc, origins, readyAt, accessMinutes, bestTarget, reach.arrival, budget, result);
+        if (start != -1) {
+            reach.origin = origins[start];
+            reach.departure = depTime.get(sc.boardEdge[reach.origin]);
+        } else {
+            result.partial = true;
+        }
+        result.totalMinutes = reach.arrival - reach.departure;
+    }
+
+    // -------------------- Latest departure --------------------
+    /**
+     * Replaces out's trains with the journey that leaves last and still gets
+     * to target by the arrival minute. The forward scans board the first
+     * train that leads anywhere, which may set off hours before a later one
+     * catching the same onward connections; scanning backwards from the
+     * arrival finds, for every station, the last departure that still makes
+     * it. origins[i] can be left from ready[i] on, and the one maximising
+     * departure minus accessMinutes[i] wins. Returns its index, its boarding
+     * connection in sc.boardEdge, or -1, out untouched, if the budget ran out
+     * first.
+     */
+    int latestJourney(SearchScratch sc, int[] origins, int[] ready, int[] accessMinutes,
+                      int target, int arrival, SearchBudget budget, RouteFinder.PathResult out) {
+        IntBuffer depStop = tt.depStop, arrStop = tt.arrStop, depTime = tt.depTime, arrTime = tt.arrTime, trip = tt.trip;
+        sc.restart();
+        int[] latest = sc.arrival;      // last departure from the station that still makes it, valid once seen
+        int[] boardConn = sc.boardEdge;
+        int[] exitConn = sc.tripEdge;   // where a train that gets there is left, valid once tripSeen
+
+        int firstReady = INF, leastAccess = INF;
+        for (int i = 0; i < origins.length; i++) {
+            firstReady = Math.min(firstReady, ready[i]);
+            leastAccess = Math.min(leastAccess, accessMinutes[i]);
+        }
+        int chosen = -1;
+        long bestLeave = Long.MIN_VALUE;
+
+        int stop = lowerBound(depTime, firstReady);
+        int c = lowerBound(depTime, arrival) - 1;
+        scan:
+        while (c >= stop) {
+            if (budget.exhausted()) return -1;
+            for (int end = Math.max(stop, c - 1023); c >= end; c--) {
+                int dep = depTime.get(c);
+                // any start still to come leaves earlier than the one found
+                if ((long) dep - leastAccess <= bestLeave) break scan;
+
+                int t = trip.get(c);
+                if (!sc.tripSeen(t)) {
+                    int a = arrStop.get(c);
+                    boolean alight = a == target ? arrTime.get(c) <= arrival
+                            : sc.seen(a) && (long) arrTime.get(c) + RouteFinder.MIN_TRANSFER_MINUTES <= latest[a];
+                    if (!alight) continue;
+                    sc.seeTrip(t);
+                    exitConn[t] = c;
+                }
+
+                // connections come latest first, so a station's first one is its last useful departure
+                int s = depStop.get(c);
+                if (sc.seen(s)) continue;
+                sc.see(s);
+                latest[s] = dep;
+                boardConn[s] = c;
+                for (int i = 0; i < origins.length; i++) {
+                    if (origins[i] == s && dep >= ready[i] && (long) dep - accessMinutes[i] > bestLeave) {
+                        bestLeave = (long) dep - accessMinutes[i];
+                        chosen = i;
+                    }
+                }
+            }
+        }
+        if (chosen == -1) return -1;
+
+        out.bestPath.clear();
+        int station = origins[chosen];
+        do {
+            int exit = exitConn[trip.get(boardConn[station])];
+            for (int k = boardConn[station]; ; k = tt.nextInTrip.get(k)) {
+                out.bestPath.add(tt.connectionLeg(k));
+                if (k == exit) break;
+            }
+            station = arrStop.get(exit);
+        } while (station != target);
+        return chosen;
+    }
+
+    /** First connection departing at or after the minute. */
+    private static int lowerBound(IntBuffer depTime, int minute) {
+        int lo = 0, hi = depTime.limit();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (depTime.get(mid) < minute) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+}
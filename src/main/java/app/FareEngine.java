@@ -0,0 +1,129 @@
+package app;
+
+import java.nio.DoubleBuffer;
+import java.util.stream.IntStream;
+
+/**
+ * Distance-based fares without the trig. Station positions are kept as unit
+ * vectors in three parallel arrays, so a great-circle distance is a chord
+ * length and one asin instead of six trig calls, and every connection's miles
+ * are computed once when the timetable is built. Agrees with
+ * {@link RouteFinder#haversineDistance} to well under a millionth of a mile.
+ *
+ * The batch methods take struct-of-arrays input (parallel int arrays of
+ * station or connection ids) and write into a caller's array, so pricing a
+ * whole OD matrix or a page of itineraries is one tight loop with no objects.
+ */
+public final class FareEngine {
+
+    private static final double EARTH_RADIUS = 3958.8; // miles, as in RouteFinder.haversineDistance
+    private static final int PARALLEL_CELLS = 1 << 16; // matrices smaller than this stay on one thread
+
+    private final double[] x, y, z;      // unit vector of each timetable station
+    private final DoubleBuffer connMiles; // great-circle miles of each connection (Timetable.connMiles, off heap)
+
+    public FareEngine(Timetable tt) {
+        double[][] unit = unitVectors(tt.stations);
+        x = unit[0];
+        y = unit[1];
+        z = unit[2];
+        connMiles = tt.connMiles;
+    }
+
+    /** Over a re-timed copy of the timetable: stations are the same, so their unit vectors are kept. */
+    FareEngine retimed(Timetable retimed) {
+        return new FareEngine(x, y, z, retimed.connMiles);
+    }
+
+    private FareEngine(double[] x, double[] y, double[] z, DoubleBuffer connMiles) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.connMiles = connMiles;
+    }
+
+    private static double[][] unitVectors(ApiHandler.StationInfo[] stations) {
+        int n = stations.length;
+        double[] x = new double[n], y = new double[n], z = new double[n];
+        for (int s = 0; s < n; s++) {
+            double phi = Math.toRadians(stations[s].lat), lambda = Math.toRadians(stations[s].lon);
+            x[s] = Math.cos(phi) * Math.cos(lambda);
+            y[s] = Math.cos(phi) * Math.sin(lambda);
+            z[s] = Math.sin(phi);
+        }
+        return new double[][]{x, y, z};
+    }
+
+    /** Miles of every connection from its stops; the timetable stores this as its miles column. */
+    static double[] connectionMiles(ApiHandler.StationInfo[] stations, int[] depStop, int[] arrStop) {
+        double[][] unit = unitVectors(stations);
+        double[] x = unit[0], y = unit[1], z = unit[2];
+        double[] out = new double[depStop.length];
+        for (int c = 0; c < out.length; c++) {
+            int a = depStop[c], b = arrStop[c];
+            out[c] = chordToMiles(x[a] - x[b], y[a] - y[b], z[a] - z[b]);
+        }
+        return out;
+    }
+
+    // -------------------- Single --------------------
+    /** Great-circle miles between two timetable stations. */
+    public double miles(int from, int to) {
+        return chordToMiles(x[from] - x[to], y[from] - y[to], z[from] - z[to]);
+    }
+
+    /** Miles ridden on one connection. */
+    public double connectionMiles(int connection) {
+        return connMiles.get(connection);
+    }
+
+    public double price(int from, int to, String classType) {
+        return miles(from, to) * RouteFinder.perMile(classType);
+    }
+
+    // -------------------- Batch --------------------
+    /** Fare from from[i] to to[i] into out[i], for every i in from. */
+    public void prices(int[] from, int[] to, String classType, double[] out) {
+        double rate = RouteFinder.perMile(classType);
+        for (int i = 0; i < from.length; i++) {
+            int a = from[i], b = to[i];
+            out[i] = chordToMiles(x[a] - x[b], y[a] - y[b], z[a] - z[b]) * rate;
+        }
+    }
+
+    /**
+     * Fares for itineraries packed one after another: itinerary i rides
+     * connections[starts[i]] .. connections[starts[i + 1] - 1], so starts has
+     * one more entry than out.
+     */
+    public void itineraryPrices(int[] connections, int[] starts, String classType, double[] out) {
+        double rate = RouteFinder.perMile(classType);
+        for (int i = 0; i + 1 < starts.length; i++) {
+            double miles = 0;
+            for (int k = starts[i]; k < starts[i + 1]; k++) miles += connMiles.get(connections[k]);
+            out[i] = miles * rate;
+        }
+    }
+
+    /** Row-major fares from every station in one list to every station in the other. */
+    public double[] matrix(int[] from, int[] to, String classType) {
+        double rate = RouteFinder.perMile(classType);
+        double[] out = new double[from.length * to.length];
+        IntStream rows = IntStream.range(0, from.length);
+        if ((long) from.length * to.length >= PARALLEL_CELLS) rows = rows.parallel();
+        rows.forEach(r -> {
+            int a = from[r], offset = r * to.length;
+            double ax = x[a], ay = y[a], az = z[a];
+            for (int c = 0; c < to.length; c++) {
+                int b = to[c];
+                out[offset + c] = chordToMiles(ax - x[b], ay - y[b], az - z[b]) * rate;
+            }
+        });
+        return out;
+    }
+
+    private static double chordToMiles(double dx, double dy, double dz) {
+        double half = Math.sqrt(dx * dx + dy * dy + dz * dz) / 2;
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(half, 1));
+    }
+}
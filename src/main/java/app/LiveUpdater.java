@@ -0,0 +1,206 @@
+package app;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Applies live delay updates without rebuilding the timetable from scratch.
+ *
+ * A freshly fetched routes.json, or a delta file with only some trains in
+ * the same shape, is read train by train and compared with the current
+ * timetable by train id. If only times moved, the changed connections are
+ * re-timed and merged back into departure order in linear time and the
+ * result is published as a new snapshot; what was built from the stations
+ * and stops alone (landmarks, transfer patterns, ride index, station tree)
+ * is carried over and only what depends on times is redone. New, removed or
+ * re-routed trains fall back to a full reload.
+ *
+ * A watcher on the data directory triggers this whenever routes.json or a
+ * delta*.json file is written.
+ */
+public class LiveUpdater {
+
+    private static final long DEBOUNCE_MILLIS = 300;
+
+    // -------------------- Patching --------------------
+    /**
+     * The timetable with the updated trains' times patched in, the same
+     * instance if nothing changed, or null if the update isn't times-only.
+     * With {@code complete} set the update must list every train, so a train
+     * missing from it counts as a structural change too.
+     */
+    static Timetable patch(Timetable tt, Timetable.Builder update, boolean complete) {
+        long start = System.nanoTime();
+        Map<Long, Integer> tripById = new HashMap<>(tt.trains.length * 2);
+        for (int t = 0; t < tt.trains.length; t++) tripById.put(tt.trains[t].id, t);
+
+        int[] tripFirst = new int[tt.trains.length];
+        Arrays.fill(tripFirst, -1);
+        for (int c = 0; c < tt.connectionCount(); c++)
+            if (tripFirst[tt.trip.get(c)] == -1) tripFirst[tt.trip.get(c)] = c;
+
+        int n = tt.connectionCount();
+        int[] newDep = null, newArr = null;
+        boolean[] changed = null;
+        int changedCount = 0;
+        boolean[] seen = new boolean[tt.trains.length];
+
+        int i = 0;
+        while (i < update.hops) {
+            int f = update.train[i];
+            int end = i;
+            while (end < update.hops && update.train[end] == f) end++;
+
+            Integer t = tripById.get(update.trains.get(f).id);
+            if (t == null || seen[t]) return null;
+            seen[t] = true;
+
+            int c = tripFirst[t];
+            for (int h = i; h < end; h++, c = tt.nextInTrip.get(c)) {
+                if (c == -1
+                        || !tt.codes[tt.depStop.get(c)].equals(update.codes.get(update.from[h]))
+                        || !tt.codes[tt.arrStop.get(c)].equals(update.codes.get(update.to[h])))
+                    return null;
+                if (tt.depTime.get(c) != update.dep[h] || tt.arrTime.get(c) != update.arr[h]) {
+                    if (changed == null) {
+                        newDep = Timetable.toArray(tt.depTime);
+                        newArr = Timetable.toArray(tt.arrTime);
+                        changed = new boolean[n];
+                    }
+                    newDep[c] = update.dep[h];
+                    newArr[c] = update.arr[h];
+                    if (!changed[c]) changedCount++;
+                    changed[c] = true;
+                }
+            }
+            if (c != -1) return null; // the train lost stops
+            i = end;
+        }
+
+        // a listed train without timed hops must not have had any before either
+        for (ApiHandler.Train header : update.trains) {
+            Integer t = tripById.get(header.id);
+            if (t == null || (!seen[t] && tripFirst[t] != -1)) return null;
+        }
+        if (complete) {
+            for (int t = 0; t < seen.length; t++)
+                if (!seen[t] && tripFirst[t] != -1) return null;
+        }
+        if (changed == null) return tt;
+
+        // re-sort only the changed connections, then merge them with the untouched (still sorted) rest
+        long[] moved = new long[changedCount];
+        int m = 0;
+        for (int c = 0; c < n; c++) if (changed[c]) moved[m++] = ((long) newDep[c] << 32) | c;
+        Arrays.sort(moved);
+
+        int[] depStop = new int[n], arrStop = new int[n], depTime = new int[n], arrTime = new int[n], trip = new int[n];
+        int[] schedDep = new int[n], schedArr = new int[n]; // the timetable itself doesn't move with delays
+        double[] miles = new double[n]; // nor do the stops, so each connection keeps its miles
+        int out = 0, a = 0, b = 0;
+        while (out < n) {
+            while (a < n && changed[a]) a++;
+            int c;
+            if (b < moved.length && (a == n || newDep[(int) moved[b]] < newDep[a]
+                    || (newDep[(int) moved[b]] == newDep[a] && (int) moved[b] < a))) {
+                c = (int) moved[b++];
+            } else {
+                c = a++;
+            }
+            depStop[out] = tt.depStop.get(c);
+            arrStop[out] = tt.arrStop.get(c);
+            depTime[out] = newDep[c];
+            arrTime[out] = newArr[c];
+            trip[out] = tt.trip.get(c);
+            schedDep[out] = tt.schedDep.get(c);
+            schedArr[out] = tt.schedArr.get(c);
+            miles[out] = tt.connMiles.get(c);
+            out++;
+        }
+
+        System.out.println("Live update: re-timed " + changedCount + " connections");
+        Timetable patched = new Timetable(tt.codes, tt.stations, tt.trains, tt.busOnly,
+                depStop, arrStop, depTime, arrTime, trip, schedDep, schedArr, miles);
+        Metrics.phase("livePatch", start);
+        return patched;
+    }
+
+    // -------------------- Applying files --------------------
+    /** Patches the live timetable from a complete routes.json, or reloads everything if trains changed. */
+    public static void applyRoutesFile(Path routes) throws Exception {
+        RoutingSnapshot snap = RouteFinder.snapshot();
+        if (snap.timetable() == null) {
+            RouteFinder.loadTimetable();
+            return;
+        }
+        TimetableSnapshot.Stamp stamp = TimetableSnapshot.Stamp.of(routes);
+        Timetable patched = patch(snap.timetable(), ApiHandler.streamInto(routes, new Timetable.Builder()), true);
+        if (patched == null) {
+            System.out.println("Live update: trains added, removed or re-routed, reloading everything");
+            RouteFinder.loadTimetable();
+            return;
+        }
+        if (patched != snap.timetable()) {
+            RouteFinder.publish(snap.retimed(patched));
+            try {
+                TimetableSnapshot.write(patched, stamp, Path.of(TimetableSnapshot.SNAPSHOT_FILE));
+            } catch (IOException e) {
+                System.err.println("Could not write timetable snapshot: " + e.getMessage());
+            }
+        }
+    }
+
+    /** Patches the live timetable from a file holding only the trains that changed. */
+    public static void applyDelta(Path delta) throws Exception {
+        RoutingSnapshot snap = RouteFinder.snapshot();
+        if (snap.timetable() == null) return;
+        Timetable patched = patch(snap.timetable(), ApiHandler.streamInto(delta, new Timetable.Builder()), false);
+        if (patched == null) {
+            System.out.println("Live update: " + delta.getFileName() + " is not times-only, reloading routes.json");
+            RouteFinder.loadTimetable();
+        } else if (patched != snap.timetable()) {
+            RouteFinder.publish(snap.retimed(patched));
+        }
+    }
+
+    // -------------------- Watching --------------------
+    /** Starts a daemon thread that applies updates whenever the data directory changes. */
+    public static Thread watch(Path dir) throws IOException {
+        WatchService ws = dir.getFileSystem().newWatchService();
+        dir.register(ws, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        Path routesName = Path.of(ApiHandler.ROUTES_FILE).getFileName();
+
+        Thread t = new Thread(() -> {
+            try {
+                while (true) {
+                    WatchKey key = ws.take();
+                    // writers touch the file several times, wait for them to settle and take one update
+                    Thread.sleep(DEBOUNCE_MILLIS);
+                    Set<Path> touched = new LinkedHashSet<>();
+                    do {
+                        for (WatchEvent<?> ev : key.pollEvents())
+                            if (ev.context() instanceof Path p) touched.add(p);
+                        key.reset();
+                    } while ((key = ws.poll()) != null);
+
+                    for (Path name : touched) {
+                        try {
+                            if (name.equals(routesName)) applyRoutesFile(dir.resolve(name));
+                            else if (name.toString().startsWith("delta") && name.toString().endsWith(".json"))
+                                applyDelta(dir.resolve(name));
+                        } catch (Exception e) {
+                            // most likely caught the file mid-write; the next event retries
+                            System.err.println("Live update of " + name + " failed: " + e.getMessage());
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "live-updater");
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+}
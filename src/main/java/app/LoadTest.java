@@ -0,0 +1,241 @@
+package app;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load generator for {@link PlannerServer}: replays a query log, or a
+ * synthetic Zipf-skewed mix of station pairs, at a fixed arrival rate and
+ * reports latency percentiles, throughput and no-route / partial / error
+ * rates. Give two servers (say the current build on one port and a candidate
+ * on another) to compare them on the same queries at the same rates.
+ *
+ *   java -cp "lib/gson-2.10.1.jar:src/main/java" app.LoadTest http://127.0.0.1:8080 [http://127.0.0.1:8081]
+ *
+ * Scheduling is open loop: request i is due at a fixed time whether or not
+ * earlier ones came back, and its latency is measured from that time. A
+ * stalled server therefore shows up as queueing in the percentiles rather
+ * than as a quietly lower send rate (coordinated omission).
+ *
+ * -Dload.rate       requests per second, or a list to step through (100; e.g. 100,200,400)
+ * -Dload.seconds    measured time per rate (30), after -Dload.warmupSeconds (5)
+ * -Dload.concurrency  most requests in flight (256); further ones wait, and that wait counts
+ * -Dload.log        file of request paths to replay in order, one per line, as written
+ *                   by the server's -Dplanner.queryLog; without it a Zipf mix is generated
+ * -Dload.zipf       skew of the generated mix (1.0), -Dload.seed (42), -Dload.timeoutMs (10000)
+ */
+public class LoadTest {
+
+    private static final double[] RATES = Arrays.stream(System.getProperty("load.rate", "100").split(","))
+            .mapToDouble(Double::parseDouble).toArray();
+    private static final long MEASURE_NANOS = Long.getLong("load.seconds", 30L) * 1_000_000_000L;
+    private static final long WARMUP_NANOS = Long.getLong("load.warmupSeconds", 5L) * 1_000_000_000L;
+    private static final int CONCURRENCY = Integer.getInteger("load.concurrency", 256);
+    private static final double ZIPF = Double.parseDouble(System.getProperty("load.zipf", "1.0"));
+    private static final long SEED = Long.getLong("load.seed", 42L);
+    private static final long TIMEOUT_MILLIS = Long.getLong("load.timeoutMs", 10_000L);
+    private static final int GENERATED = 100_000; // distinct queries in a generated mix, cycled
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("usage: LoadTest <baseUrl> [otherBaseUrl]");
+            return;
+        }
+        String log = System.getProperty("load.log");
+        List<String> queries = log != null ? readLog(Path.of(log)) : zipfMix();
+        if (queries.isEmpty()) {
+            System.err.println("No queries to send.");
+            return;
+        }
+        System.out.println((log != null ? "replaying " + log : "zipf " + ZIPF + " mix") + ": "
+                + queries.size() + " queries, " + CONCURRENCY + " max in flight, "
+                + MEASURE_NANOS / 1_000_000_000L + " s per rate");
+        System.out.printf("%-28s %8s %9s %7s %7s %7s %7s %9s %9s %9s %9s %9s%n", "target", "rate/s", "done/s",
+                "ok%", "none%", "part%", "err%", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(TIMEOUT_MILLIS))
+                .executor(pool)
+                .build();
+        // rates outer, targets inner, so drift on the host hits both builds alike
+        for (double rate : RATES) {
+            Result first = null;
+            for (String target : args) {
+                Result r = run(client, target, queries, rate);
+                r.print();
+                if (first == null) first = r;
+                else r.printAgainst(first);
+            }
+        }
+        pool.shutdown();
+    }
+
+    // -------------------- Queries --------------------
+    /** Request paths from a log; blank lines and # comments are skipped. */
+    static List<String> readLog(Path file) throws Exception {
+        List<String> out = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) out.add(line);
+        }
+        return out;
+    }
+
+    /**
+     * Route queries between station pairs drawn from a Zipf distribution:
+     * stations ranked by departures, the k-th busiest picked with weight 1/k^s,
+     * so a few hubs dominate the way they do in real traffic.
+     */
+    static List<String> zipfMix() throws Exception {
+        RouteFinder.loadTimetable();
+        Timetable tt = RouteFinder.snapshot().timetable();
+        Integer[] ranked = new Integer[tt.stationCount()];
+        for (int s = 0; s < ranked.length; s++) ranked[s] = s;
+        Arrays.sort(ranked, Comparator.comparingInt((Integer s) -> tt.offsets.get(s) - tt.offsets.get(s + 1))
+                .thenComparing(s -> tt.codes[s]));
+
+        double[] cdf = new double[ranked.length];
+        double total = 0;
+        for (int k = 0; k < cdf.length; k++) cdf[k] = total += 1 / Math.pow(k + 1, ZIPF);
+        Random rnd = new Random(SEED);
+        List<String> out = new ArrayList<>(GENERATED);
+        while (out.size() < GENERATED && ranked.length > 1) {
+            int a = ranked[draw(cdf, rnd)], b = ranked[draw(cdf, rnd)];
+            if (a == b) continue;
+            out.add("/route?from=" + URLEncoder.encode(tt.codes[a], StandardCharsets.UTF_8)
+                    + "&to=" + URLEncoder.encode(tt.codes[b], StandardCharsets.UTF_8) + "&class=economy");
+        }
+        return out;
+    }
+
+    private static int draw(double[] cdf, Random rnd) {
+        int i = Arrays.binarySearch(cdf, rnd.nextDouble() * cdf[cdf.length - 1]);
+        return i >= 0 ? i : Math.min(-i - 1, cdf.length - 1);
+    }
+
+    // -------------------- Run --------------------
+    private static Result run(HttpClient client, String target, List<String> queries, double rate) throws Exception {
+        String base = target.endsWith("/") ? target.substring(0, target.length() - 1) : target;
+        Result r = new Result(target, rate);
+        Semaphore inFlight = new Semaphore(CONCURRENCY);
+        Random arrivals = new Random(SEED); // same schedule for every target
+        double meanGap = 1e9 / rate;
+
+        long start = System.nanoTime() + 100_000_000L, measureFrom = start + WARMUP_NANOS, end = measureFrom + MEASURE_NANOS;
+        double due = start;
+        for (int i = 0; due < end; i++) {
+            long scheduled = (long) due;
+            due += -Math.log(1 - arrivals.nextDouble()) * meanGap; // Poisson arrivals
+            for (long wait; (wait = scheduled - System.nanoTime()) > 0; ) LockSupport.parkNanos(wait);
+            inFlight.acquire();
+
+            boolean measured = scheduled >= measureFrom;
+            if (measured) r.sent.increment();
+            HttpRequest request = HttpRequest.newBuilder(URI.create(base + queries.get(i % queries.size())))
+                    .timeout(Duration.ofMillis(TIMEOUT_MILLIS)).GET().build();
+            client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).whenComplete((response, error) -> {
+                long latency = System.nanoTime() - scheduled;
+                if (measured) r.record(response, error, latency);
+                inFlight.release();
+            });
+        }
+        if (!inFlight.tryAcquire(CONCURRENCY, TIMEOUT_MILLIS + 1000, TimeUnit.MILLISECONDS))
+            System.err.println(target + ": requests still outstanding after the timeout");
+        r.seconds = MEASURE_NANOS / 1e9;
+        return r;
+    }
+
+    /** Counters and latencies of the measured part of one run. */
+    private static final class Result {
+        final String target;
+        final double rate;
+        final Metrics.Histogram latency = new Metrics.Histogram();
+        final LongAdder sent = new LongAdder(), found = new LongAdder(), noRoute = new LongAdder(), partial = new LongAdder();
+        final Map<String, LongAdder> errors = new ConcurrentSkipListMap<>();
+        double seconds;
+
+        Result(String target, double rate) {
+            this.target = target;
+            this.rate = rate;
+        }
+
+        void record(HttpResponse<String> response, Throwable error, long nanos) {
+            latency.record(nanos);
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                errors.computeIfAbsent(cause.getClass().getSimpleName(), k -> new LongAdder()).increment();
+            } else if (response.statusCode() != 200) {
+                errors.computeIfAbsent("HTTP " + response.statusCode(), k -> new LongAdder()).increment();
+            } else if (!response.body().startsWith("{")) {
+                found.increment(); // csv matrix or a station list
+            } else {
+                JsonObject body = JsonParser.parseString(response.body()).getAsJsonObject();
+                if (isFalse(body.get("found"))) noRoute.increment();
+                else found.increment();
+                if (body.has("partial") && !isFalse(body.get("partial"))) partial.increment();
+            }
+        }
+
+        private static boolean isFalse(JsonElement e) {
+            return e != null && e.isJsonPrimitive() && !e.getAsBoolean();
+        }
+
+        long done() {
+            return latency.count();
+        }
+
+        long failed() {
+            return errors.values().stream().mapToLong(LongAdder::sum).sum();
+        }
+
+        double share(long n) {
+            return done() == 0 ? 0 : 100.0 * n / done();
+        }
+
+        void print() {
+            System.out.printf("%-28s %8.0f %9.1f %7.2f %7.2f %7.2f %7.2f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                    target, rate, done() / seconds, share(found.sum()), share(noRoute.sum()), share(partial.sum()),
+                    share(failed()), ms(latency.percentile(50)), ms(latency.percentile(90)), ms(latency.percentile(99)),
+                    ms(latency.percentile(99.9)), ms(latency.max()));
+            if (!errors.isEmpty()) System.out.println("    errors: " + errors);
+            if (sent.sum() > done()) System.out.println("    unanswered: " + (sent.sum() - done()));
+        }
+
+        /** Change from the first target, in percent; negative latency is better. */
+        void printAgainst(Result base) {
+            System.out.printf("%-28s %8s %+8.1f%% %7s %7s %7s %+6.2fpp %+8.1f%% %+8.1f%% %+8.1f%% %+8.1f%% %+8.1f%%%n",
+                    "  vs " + base.target, "", change(done() / seconds, base.done() / base.seconds), "", "", "",
+                    share(failed()) - base.share(base.failed()),
+                    change(latency.percentile(50), base.latency.percentile(50)),
+                    change(latency.percentile(90), base.latency.percentile(90)),
+                    change(latency.percentile(99), base.latency.percentile(99)),
+                    change(latency.percentile(99.9), base.latency.percentile(99.9)),
+                    change(latency.max(), base.latency.max()));
+        }
+
+        private static double change(double value, double base) {
+            return base == 0 ? 0 : 100 * (value - base) / base;
+        }
+
+        private static double ms(long nanos) {
+            return nanos / 1e6;
+        }
+    }
+}
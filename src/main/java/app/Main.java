@@ -12,8 +12,10 @@ import javafx.scene.web.WebView;
 
 public class Main {
 
-    private List<ApiHandler.Route> allRoutes;
     private int xof = 0;
+    // the search in flight; a new click cancels it so only the latest one runs
+    private SwingWorker<RouteFinder.PathResult, Void> search;
+    private SearchBudget searchBudget;
 
     public static void main(String[] args) {
         SwingUtilities.invokeLater(() -> {
@@ -26,32 +28,13 @@ public class Main {
     }
 
     private void createGUI() throws Exception {
-        allRoutes = ApiHandler.loadRoutes();
-
-        // ----------------------------
-        // Populate station lookup data
-        // ----------------------------
-        List<ApiHandler.Station> flatStations = new ArrayList<>();
-        for (ApiHandler.Route r : allRoutes)
-            for (ApiHandler.Train t : r.trains)
-                flatStations.addAll(t.stations);
-
-        RouteFinder.populateStationsMap(allRoutes);
-
-        // --------------------
-        // Build state & city lists
-        // --------------------
-        List<String> states = getAllStates(allRoutes);
-        Collections.sort(states);
-        String[] allStates = states.toArray(new String[0]);
-
-        List<String> cities = getAllCities(allRoutes);
-        Collections.sort(cities);
-        String[] allCities = cities.toArray(new String[0]);
+        long launched = System.nanoTime();
+        Metrics.register();
 
         // --------------------
         // GUI Setup
         // --------------------
+        // the window comes up empty; state & city lists fill in once the loader below has the stations
         JFrame gui = new JFrame("Train Planner");
         gui.setSize(390, 500);
         gui.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -61,24 +44,23 @@ public class Main {
         mapPanel.setPreferredSize(new Dimension(350, 500));
        // gui.add(mapPanel, BorderLayout.WEST);
 
-        JFXPanel fxPanel = new JFXPanel();
-        Platform.runLater(() -> {
-            WebView webView = new WebView();
-            fxPanel.setScene(new Scene(webView));
-        });
-       // mapPanel.add(fxPanel);
-
         JPanel controls = new JPanel();
         controls.setLayout(new BoxLayout(controls, BoxLayout.Y_AXIS));
         controls.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 20));
 
-        JComboBox<String> startStateBox = new JComboBox<>(allStates);
-        JComboBox<String> startCityBox = new JComboBox<>(allCities);
-        JComboBox<String> destStateBox = new JComboBox<>(allStates);
-        JComboBox<String> destCityBox = new JComboBox<>(allCities);
+        JComboBox<String> startStateBox = new JComboBox<>();
+        JComboBox<String> startCityBox = new JComboBox<>();
+        JComboBox<String> destStateBox = new JComboBox<>();
+        JComboBox<String> destCityBox = new JComboBox<>();
         JComboBox<String> classBox = new JComboBox<>(new String[]{"economy", "business", "first", "private"});// might not need private, not many trains run that
 
         JButton findButton = new JButton("Find Route");
+        findButton.setEnabled(false); // until the route engine is built
+
+        JProgressBar loading = new JProgressBar(0, 100);
+        loading.setStringPainted(true);
+        loading.setIndeterminate(true);
+        loading.setString("Starting...");
 
         JTextPane results = new JTextPane();
         results.setEditable(false);
@@ -112,6 +94,7 @@ public class Main {
         controls.add(scroll);
 
         gui.add(controls, BorderLayout.EAST);
+        gui.add(loading, BorderLayout.SOUTH);
 
         // --------------------
         // Filter cities by state
@@ -119,19 +102,23 @@ public class Main {
         startStateBox.addActionListener(e -> {
             String st = (String) startStateBox.getSelectedItem();
             startCityBox.setModel(new DefaultComboBoxModel<>(
-                    getCitiesByState(st).toArray(new String[0])));
+                    RouteFinder.snapshot().index().citiesIn(st).toArray(new String[0])));
         });
 
         destStateBox.addActionListener(e -> {
             String st = (String) destStateBox.getSelectedItem();
             destCityBox.setModel(new DefaultComboBoxModel<>(
-                    getCitiesByState(st).toArray(new String[0])));
+                    RouteFinder.snapshot().index().citiesIn(st).toArray(new String[0])));
         });
 
         // -----------------------------------------
         // Find Route Click Action
         // -----------------------------------------
         findButton.addActionListener(e -> {
+            if (search != null && !search.isDone()) {
+                searchBudget.cancel();
+                search.cancel(true);
+            }
             try { doc.remove(0, doc.getLength()); } catch (Exception ignored) {}
         
             if (xof != 0) { // heh metal gear refference
@@ -150,17 +137,10 @@ public class Main {
                 return;
             }
         
-            String fromCode = RouteFinder.stationsMap.entrySet().stream()
-                    .filter(e2 -> e2.getValue().city.equalsIgnoreCase(startCity) &&
-                                  e2.getValue().state.equalsIgnoreCase(startState))
-                    .map(Map.Entry::getKey)
-                    .findFirst().orElse(null);
-        
-            String toCode = RouteFinder.stationsMap.entrySet().stream()
-                    .filter(e2 -> e2.getValue().city.equalsIgnoreCase(destCity) &&
-                                  e2.getValue().state.equalsIgnoreCase(destState))
-                    .map(Map.Entry::getKey)
-                    .findFirst().orElse(null);
+            // one snapshot for the whole query, a data refresh can't change it underneath us
+            RoutingSnapshot snap = RouteFinder.snapshot();
+            String fromCode = snap.index().firstCode(startState, startCity);
+            String toCode = snap.index().firstCode(destState, destCity);
         
             if (fromCode == null || toCode == null) {
                 appendStyled(doc, "No valid stations found.\n", normal);
@@ -180,26 +160,28 @@ public class Main {
                 appendStyled(doc,spinnerFrames[frameIndex[0]] + " " + "Calculating route... " + spinnerFrames[frameIndex[0]] + "\n", normal);
                 frameIndex[0] = (frameIndex[0] + 1) % spinnerFrames.length;
             });
-            spinnerTimer.start(); //spinner not starting, seems to not run when dfs is running so this is extra unnecessary code, will keep it just in case.
+            spinnerTimer.start(); // the search runs in the worker below, so this animates; most searches finish before the first frame
         
             // ---------------------------
             //    Run DFS in background
             // ---------------------------
+            SearchBudget budget = SearchBudget.within(RouteFinder.SEARCH_MILLIS);
             SwingWorker<RouteFinder.PathResult, Void> worker = new SwingWorker<>() {
                 @Override
                 protected RouteFinder.PathResult doInBackground() {
-                    return RouteFinder.findShortestRoute(allRoutes, fromCode, toCode);
+                    return RouteFinder.routeCache.route(snap, fromCode, toCode, null, budget).route;
                 }
             
                 @Override
                 protected void done() {
                     spinnerTimer.stop(); 
+                    if (isCancelled()) return; // superseded, the newer search owns the results pane
                     try {
                         doc.remove(0, doc.getLength());
                         RouteFinder.PathResult result = get();
             
                         if (result.bestPath.isEmpty()) {
-                            appendStyled(doc, "No route found.\n", normal);
+                            appendStyled(doc, result.partial ? "Search timed out before finding a route.\n" : "No route found.\n", normal);
                             return;
                         }
             
@@ -242,12 +224,14 @@ public class Main {
                                 (m > 0 ? " " + m + " mins" : "") + "\n",
                                 normal);
             
-                        double price = RouteFinder.calculateLowestPrice(fromCode, toCode, classType);
+                        double price = snap.lowestPrice(fromCode, toCode, classType);
                         appendStyled(doc,
                                 "Lowest possible price: $" +
                                 String.format("%.2f", price) + "\n",
                                 normal);
             
+                        if (result.partial)
+                            appendStyled(doc, "Search timed out, a faster route may exist.\n", normal);
                         appendStyled(doc, "-------------------------------------------\n", normal);
             
                     } catch (Exception ex) {
@@ -257,64 +241,96 @@ public class Main {
             };
             
         
+            search = worker;
+            searchBudget = budget;
             worker.execute();  
         });
         
 
+        gui.setVisible(true);
+        Metrics.phase("windowShown", launched);
+
         // --------------------
-        //  Build leg graph
+        // Load data in the background
         // --------------------
-        try {
-            System.out.println("Building leg graphs...");
-            RouteFinder.buildLegGraph(allRoutes);
-        } catch (Exception e) {
-            System.err.println("Error building leg graph: " + e.getMessage());
-            xof = 1;
-        }
+        SwingWorker<Void, Void> loader = new SwingWorker<>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                System.out.println("Building leg graphs...");
+                RouteFinder.loadTimetable(new RouteFinder.LoadListener() {
+                    private volatile int shown = -2;
 
-        if (xof == 0) {
-            System.out.println("leg graph built successfully");
-        }
+                    @Override
+                    public void progress(String step, double done) {
+                        int percent = done < 0 ? -1 : (int) (done * 100);
+                        if (percent == shown) return; // parsers report from several threads, often
+                        shown = percent;
+                        SwingUtilities.invokeLater(() -> {
+                            loading.setIndeterminate(percent < 0);
+                            if (percent >= 0) loading.setValue(percent);
+                            loading.setString(percent < 0 ? step + "..." : step + " " + percent + "%");
+                        });
+                    }
 
-        gui.setVisible(true);
-    }
+                    @Override
+                    public void stationsReady(RoutingSnapshot stations) {
+                        String[] states = stations.index().states().toArray(new String[0]);
+                        String[] cities = stations.index().cities().toArray(new String[0]);
+                        SwingUtilities.invokeLater(() -> {
+                            startStateBox.setModel(new DefaultComboBoxModel<>(states));
+                            startCityBox.setModel(new DefaultComboBoxModel<>(cities));
+                            destStateBox.setModel(new DefaultComboBoxModel<>(states));
+                            destCityBox.setModel(new DefaultComboBoxModel<>(cities));
+                            Metrics.phase("stationsShown", launched);
+                        });
+                    }
+                });
+                return null;
+            }
 
-    private void appendStyled(StyledDocument doc, String text, AttributeSet style) {
-        try { doc.insertString(doc.getLength(), text, style); }
-        catch (Exception ignored) {}
-    }
+            @Override
+            protected void done() {
+                loading.setIndeterminate(false);
+                try {
+                    get();
+                } catch (Exception e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    System.err.println("Error building leg graph: " + cause.getMessage());
+                    xof = 1;
+                    loading.setValue(0);
+                    loading.setString("Routing system failed to initialize");
+                    findButton.setEnabled(true); // so a click explains what went wrong
+                    return;
+                }
+                System.out.println("leg graph built successfully");
+                loading.setValue(100);
+                loading.setString("Ready");
+                findButton.setEnabled(true);
+                Metrics.phase("timeToInteractive", launched);
 
-    private List<String> getAllStates(List<ApiHandler.Route> routes) {
-        Set<String> s = new HashSet<>();
-        for (ApiHandler.Route r : routes)
-            for (ApiHandler.Train t : r.trains)
-                for (ApiHandler.Station st : t.stations)
-                    if (st.station != null && st.station.state != null)
-                        s.add(st.station.state);
-        return new ArrayList<>(s);
-    }
+                // pick up delay updates from npm run update without a restart
+                try {
+                    LiveUpdater.watch(java.nio.file.Path.of(ApiHandler.ROUTES_FILE).getParent());
+                } catch (Exception e) {
+                    System.err.println("Live updates disabled: " + e.getMessage());
+                }
+            }
+        };
+        loader.execute();
 
-    private List<String> getAllCities(List<ApiHandler.Route> routes) {
-        Set<String> s = new HashSet<>();
-        for (ApiHandler.Route r : routes)
-            for (ApiHandler.Train t : r.trains)
-                for (ApiHandler.Station st : t.stations)
-                    if (st.station != null && st.station.city != null)
-                        s.add(st.station.city);
-        return new ArrayList<>(s);
+        // the map view isn't shown yet; start JavaFX after the first paint rather than before it
+        SwingUtilities.invokeLater(() -> {
+            JFXPanel fxPanel = new JFXPanel();
+            Platform.runLater(() -> {
+                WebView webView = new WebView();
+                fxPanel.setScene(new Scene(webView));
+            });
+           // mapPanel.add(fxPanel);
+        });
     }
 
-    private List<String> getCitiesByState(String state) {
-        Set<String> s = new HashSet<>();
-        for (ApiHandler.Route r : allRoutes)
-            for (ApiHandler.Train t : r.trains)
-                for (ApiHandler.Station st : t.stations)
-                    if (st.station != null &&
-                        st.station.state.equalsIgnoreCase(state))
-                        s.add(st.station.city);
-        List<String> out = new ArrayList<>(s);
-        Collections.sort(out);
-       
-        return out;
+    private void appendStyled(StyledDocument doc, String text, AttributeSet style) {
+        try { doc.insertString(doc.getLength(), text, style); }
+        catch (Exception ignored) {}
     }
 }
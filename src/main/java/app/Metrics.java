@@ -0,0 +1,337 @@
+package app;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+import jdk.jfr.*;
+
+/**
+ * Process-wide counters for route queries and data loads: per-phase timers,
+ * a query latency histogram, nodes expanded per search, plus the route cache
+ * and timetable size read live. Everything is lock-free so recording stays on
+ * the hot path; it is readable over JMX (app:type=RoutePlanner), at
+ * /metrics on the planner server, and each query and phase is also emitted
+ * as a JFR event when a flight recording is running.
+ */
+public final class Metrics implements MetricsMXBean {
+
+    static final Metrics INSTANCE = new Metrics();
+
+    private final Histogram queryLatency = new Histogram();
+    private final LongAdder expandedTotal = new LongAdder();
+    private final LongAccumulator expandedMax = new LongAccumulator(Math::max, 0);
+    private final LongAdder unrouted = new LongAdder();
+    private final LongAdder partial = new LongAdder();
+    private final Map<String, Phase> phases = new ConcurrentHashMap<>();
+    private volatile boolean registered;
+
+    private Metrics() {
+    }
+
+    /** Registers the MBean once; safe to call from every entry point. */
+    static synchronized void register() {
+        if (INSTANCE.registered) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName("app:type=RoutePlanner"));
+            INSTANCE.registered = true;
+        } catch (Exception e) {
+            System.err.println("Metrics not exported over JMX: " + e.getMessage());
+        }
+    }
+
+    // -------------------- Recording --------------------
+    /** Records a load phase that started at the given System.nanoTime(). */
+    static void phase(String name, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        INSTANCE.phases.computeIfAbsent(name, k -> new Phase()).record(nanos);
+
+        PhaseEvent event = new PhaseEvent();
+        if (event.isEnabled()) {
+            event.phase = name;
+            event.took = nanos;
+            event.commit();
+        }
+    }
+
+    /** Records one engine search that started at the given System.nanoTime(). */
+    static void query(String from, String to, RouteFinder.PathResult result, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        INSTANCE.queryLatency.record(nanos);
+        INSTANCE.expandedTotal.add(result.expandedNodes);
+        INSTANCE.expandedMax.accumulate(result.expandedNodes);
+        if (result.bestPath.isEmpty()) INSTANCE.unrouted.increment();
+        if (result.partial) INSTANCE.partial.increment();
+
+        QueryEvent event = new QueryEvent();
+        if (event.isEnabled()) {
+            event.from = from;
+            event.to = to;
+            event.engine = RouteFinder.ENGINE_NAME;
+            event.expandedNodes = result.expandedNodes;
+            event.legs = result.bestPath.size();
+            event.partial = result.partial;
+            event.took = nanos;
+            event.commit();
+        }
+    }
+
+    private static final class Phase {
+        final LongAdder count = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        volatile long lastNanos;
+
+        void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            lastNanos = nanos;
+        }
+    }
+
+    // -------------------- JFR events --------------------
+    @Name("app.RouteQuery")
+    @Label("Route Query")
+    @Category("Route Planner")
+    static class QueryEvent extends Event {
+        @Label("From") String from;
+        @Label("To") String to;
+        @Label("Engine") String engine;
+        @Label("Expanded Nodes") int expandedNodes;
+        @Label("Legs") int legs;
+        @Label("Partial") boolean partial;
+        @Label("Took") @Timespan(Timespan.NANOSECONDS) long took;
+    }
+
+    @Name("app.LoadPhase")
+    @Label("Load Phase")
+    @Category("Route Planner")
+    static class PhaseEvent extends Event {
+        @Label("Phase") String phase;
+        @Label("Took") @Timespan(Timespan.NANOSECONDS) long took;
+    }
+
+    // -------------------- Histogram --------------------
+    /**
+     * Log-linear latency histogram in the spirit of HdrHistogram: values
+     * below 128 ns get their own bucket, above that each power of two is
+     * split into 64 buckets, so any recorded value is within about 1.6%.
+     */
+    static final class Histogram {
+        private static final int SUB_BITS = 6, SUB = 1 << SUB_BITS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(64 * SUB);
+        private final LongAdder total = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        void record(long nanos) {
+            if (nanos < 0) nanos = 0;
+            counts.incrementAndGet(bucket(nanos));
+            total.increment();
+            sum.add(nanos);
+            max.accumulate(nanos);
+        }
+
+        static int bucket(long v) {
+            if (v < 2 * SUB) return (int) v;
+            int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+            return shift * SUB + (int) (v >>> shift);
+        }
+
+        /** Highest value that lands in the bucket. */
+        static long upperBound(int bucket) {
+            if (bucket < 2 * SUB) return bucket;
+            int shift = bucket / SUB - 1;
+            long mantissa = bucket - (long) shift * SUB;
+            return ((mantissa + 1) << shift) - 1;
+        }
+
+        long count() {
+            return total.sum();
+        }
+
+        long max() {
+            return max.get();
+        }
+
+        double mean() {
+            long n = total.sum();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+
+        /** Value at the given percentile (0-100), never below the true one. */
+        long percentile(double p) {
+            long n = total.sum();
+            if (n == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(n * p / 100));
+            long seen = 0;
+            for (int b = 0; b < counts.length(); b++) {
+                seen += counts.get(b);
+                if (seen >= rank) return Math.min(upperBound(b), max());
+            }
+            return max();
+        }
+
+        void reset() {
+            for (int b = 0; b < counts.length(); b++) counts.set(b, 0);
+            total.reset();
+            sum.reset();
+            max.reset();
+        }
+    }
+
+    // -------------------- MXBean --------------------
+    @Override
+    public long getQueryCount() {
+        return queryLatency.count();
+    }
+
+    @Override
+    public double getQueryMeanMicros() {
+        return queryLatency.mean() / 1000;
+    }
+
+    @Override
+    public long getQueryP50Micros() {
+        return queryLatency.percentile(50) / 1000;
+    }
+
+    @Override
+    public long getQueryP90Micros() {
+        return queryLatency.percentile(90) / 1000;
+    }
+
+    @Override
+    public long getQueryP99Micros() {
+        return queryLatency.percentile(99) / 1000;
+    }
+
+    @Override
+    public long getQueryP999Micros() {
+        return queryLatency.percentile(99.9) / 1000;
+    }
+
+    @Override
+    public long getQueryMaxMicros() {
+        return queryLatency.max() / 1000;
+    }
+
+    @Override
+    public double getMeanExpandedNodes() {
+        long n = queryLatency.count();
+        return n == 0 ? 0 : (double) expandedTotal.sum() / n;
+    }
+
+    @Override
+    public long getMaxExpandedNodes() {
+        return expandedMax.get();
+    }
+
+    @Override
+    public long getUnroutedQueries() {
+        return unrouted.sum();
+    }
+
+    @Override
+    public long getPartialQueries() {
+        return partial.sum();
+    }
+
+    @Override
+    public Map<String, Double> getPhases() {
+        Map<String, Double> out = new TreeMap<>();
+        phases.forEach((name, p) -> {
+            out.put(name + ".count", (double) p.count.sum());
+            out.put(name + ".totalMs", p.totalNanos.sum() / 1e6);
+            out.put(name + ".lastMs", p.lastNanos / 1e6);
+        });
+        return out;
+    }
+
+    @Override
+    public long getCacheHits() {
+        return RouteFinder.routeCache.hits();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return RouteFinder.routeCache.misses();
+    }
+
+    @Override
+    public double getCacheHitRate() {
+        long hits = getCacheHits(), total = hits + getCacheMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public long getCacheEvictions() {
+        return RouteFinder.routeCache.evictions();
+    }
+
+    @Override
+    public long getSnapshotVersion() {
+        return RouteFinder.snapshot().version();
+    }
+
+    @Override
+    public int getTimetableConnections() {
+        Timetable tt = RouteFinder.snapshot().timetable();
+        return tt == null ? 0 : tt.connectionCount();
+    }
+
+    @Override
+    public long getTimetableBytes() {
+        Timetable tt = RouteFinder.snapshot().timetable();
+        return tt == null ? 0 : tt.footprintBytes();
+    }
+
+    @Override
+    public long getTimetableOffHeapBytes() {
+        Timetable tt = RouteFinder.snapshot().timetable();
+        return tt == null ? 0 : tt.offHeapBytes();
+    }
+
+    @Override
+    public boolean isTimetableMapped() {
+        Timetable tt = RouteFinder.snapshot().timetable();
+        return tt != null && tt.isMapped();
+    }
+
+    @Override
+    public void resetQueryStats() {
+        queryLatency.reset();
+        expandedTotal.reset();
+        expandedMax.reset();
+        unrouted.reset();
+        partial.reset();
+    }
+
+    /** Everything above as one map, for the planner's /metrics endpoint. */
+    Map<String, Object> snapshot() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("queries", getQueryCount());
+        out.put("queryMeanMicros", getQueryMeanMicros());
+        out.put("queryP50Micros", getQueryP50Micros());
+        out.put("queryP90Micros", getQueryP90Micros());
+        out.put("queryP99Micros", getQueryP99Micros());
+        out.put("queryP999Micros", getQueryP999Micros());
+        out.put("queryMaxMicros", getQueryMaxMicros());
+        out.put("meanExpandedNodes", getMeanExpandedNodes());
+        out.put("maxExpandedNodes", getMaxExpandedNodes());
+        out.put("unroutedQueries", getUnroutedQueries());
+        out.put("partialQueries", getPartialQueries());
+        out.put("phases", getPhases());
+        out.put("cacheHitRate", getCacheHitRate());
+        out.put("cache", RouteFinder.routeCache.stats());
+        out.put("snapshotVersion", getSnapshotVersion());
+        out.put("timetableConnections", getTimetableConnections());
+        out.put("timetableBytes", getTimetableBytes());
+        out.put("timetableOffHeapBytes", getTimetableOffHeapBytes());
+        out.put("timetableMapped", isTimetableMapped());
+        return out;
+    }
+}
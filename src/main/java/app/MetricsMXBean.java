@@ -0,0 +1,53 @@
+package app;
+
+import java.util.Map;
+
+/** JMX view of {@link Metrics}, registered as app:type=RoutePlanner. */
+public interface MetricsMXBean {
+
+    long getQueryCount();
+
+    double getQueryMeanMicros();
+
+    long getQueryP50Micros();
+
+    long getQueryP90Micros();
+
+    long getQueryP99Micros();
+
+    long getQueryP999Micros();
+
+    long getQueryMaxMicros();
+
+    double getMeanExpandedNodes();
+
+    long getMaxExpandedNodes();
+
+    long getUnroutedQueries();
+
+    /** Searches stopped by their deadline or cancelled before finishing. */
+    long getPartialQueries();
+
+    /** Count, total and last milliseconds of each load phase, keyed "phase.count" / "phase.totalMs" / "phase.lastMs". */
+    Map<String, Double> getPhases();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    double getCacheHitRate();
+
+    long getCacheEvictions();
+
+    long getSnapshotVersion();
+
+    int getTimetableConnections();
+
+    long getTimetableBytes();
+
+    long getTimetableOffHeapBytes();
+
+    boolean isTimetableMapped();
+
+    void resetQueryStats();
+}
@@ -0,0 +1,198 @@
+package app;
+
+import java.util.Arrays;
+
+/**
+ * k-d tree over station coordinates for nearest-station and radius lookups.
+ *
+ * Each station becomes a point on the unit sphere, so straight-line (chord)
+ * distance ranks stations exactly like great-circle distance and the usual
+ * axis-aligned pruning stays exact anywhere on the globe, no special cases
+ * at the poles or the date line. The tree is implicit: stations are permuted
+ * so every subtree is a contiguous slice with its split point in the middle,
+ * and a query allocates only its answer.
+ */
+public final class NearbyStations {
+
+    private static final double EARTH_RADIUS = 3958.8; // miles, as in RouteFinder.haversineDistance
+
+    private final int[] ids;     // timetable station ids in tree order
+    private final double[] xyz;  // unit vectors in tree order, three per station
+    private final byte[] axis;   // split axis of the subtree rooted at each slot
+
+    /** Indexes every timetable station with a known position (0, 0 means the feed had none). */
+    public NearbyStations(Timetable tt) {
+        int n = 0;
+        int[] ids = new int[tt.stationCount()];
+        for (int s = 0; s < tt.stationCount(); s++) {
+            ApiHandler.StationInfo info = tt.stations[s];
+            if (info.lat != 0 || info.lon != 0) ids[n++] = s;
+        }
+        this.ids = Arrays.copyOf(ids, n);
+        this.xyz = new double[3 * n];
+        this.axis = new byte[n];
+        for (int i = 0; i < n; i++) {
+            ApiHandler.StationInfo info = tt.stations[this.ids[i]];
+            toUnit(info.lat, info.lon, xyz, 3 * i);
+        }
+        build(0, n);
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    // -------------------- Build --------------------
+    private void build(int lo, int hi) {
+        if (hi - lo < 2) return;
+        // split on the axis the slice is widest along
+        double[] min = {2, 2, 2}, max = {-2, -2, -2};
+        for (int i = lo; i < hi; i++)
+            for (int a = 0; a < 3; a++) {
+                min[a] = Math.min(min[a], xyz[3 * i + a]);
+                max[a] = Math.max(max[a], xyz[3 * i + a]);
+            }
+        int a = 0;
+        for (int k = 1; k < 3; k++) if (max[k] - min[k] > max[a] - min[a]) a = k;
+
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, a);
+        axis[mid] = (byte) a;
+        build(lo, mid);
+        build(mid + 1, hi);
+    }
+
+    /** Quickselect: puts the k-th smallest along the axis at k, smaller before, larger after. */
+    private void select(int lo, int hi, int k, int a) {
+        while (lo < hi) {
+            double pivot = xyz[3 * ((lo + hi) >>> 1) + a];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (xyz[3 * i + a] < pivot) i++;
+                while (xyz[3 * j + a] > pivot) j--;
+                if (i <= j) swap(i++, j--);
+            }
+            if (k <= j) hi = j;
+            else if (k >= i) lo = i;
+            else return;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int id = ids[i];
+        ids[i] = ids[j];
+        ids[j] = id;
+        for (int a = 0; a < 3; a++) {
+            double v = xyz[3 * i + a];
+            xyz[3 * i + a] = xyz[3 * j + a];
+            xyz[3 * j + a] = v;
+        }
+    }
+
+    // -------------------- Queries --------------------
+    /** Up to k station ids nearest the point, closest first. */
+    public int[] nearest(double lat, double lon, int k) {
+        k = Math.min(k, ids.length);
+        if (k <= 0) return new int[0];
+        double[] q = toUnit(lat, lon, new double[3], 0);
+        Best best = new Best(k, k);
+        nearest(0, ids.length, q, best);
+        int[] out = new int[best.size];
+        for (int i = 0; i < best.size; i++) out[i] = ids[best.slot[i]];
+        return out;
+    }
+
+    /** Station ids within the given miles of the point, closest first. */
+    public int[] within(double lat, double lon, double miles) {
+        double[] q = toUnit(lat, lon, new double[3], 0);
+        double chord = miles >= Math.PI * EARTH_RADIUS ? 2 : 2 * Math.sin(miles / EARTH_RADIUS / 2);
+        Best found = new Best(8, Integer.MAX_VALUE);
+        within(0, ids.length, q, chord * chord, found);
+        int[] out = new int[found.size];
+        for (int i = 0; i < found.size; i++) out[i] = ids[found.slot[i]];
+        return out;
+    }
+
+    private void nearest(int lo, int hi, double[] q, Best best) {
+        if (lo >= hi) return;
+        int mid = (lo + hi) >>> 1;
+        best.offer(mid, dist2(q, mid));
+        int a = axis[mid];
+        double diff = q[a] - xyz[3 * mid + a];
+        if (diff < 0) {
+            nearest(lo, mid, q, best);
+            if (!best.full() || diff * diff < best.worst()) nearest(mid + 1, hi, q, best);
+        } else {
+            nearest(mid + 1, hi, q, best);
+            if (!best.full() || diff * diff < best.worst()) nearest(lo, mid, q, best);
+        }
+    }
+
+    private void within(int lo, int hi, double[] q, double r2, Best found) {
+        if (lo >= hi) return;
+        int mid = (lo + hi) >>> 1;
+        double d2 = dist2(q, mid);
+        if (d2 <= r2) found.offer(mid, d2);
+        int a = axis[mid];
+        double diff = q[a] - xyz[3 * mid + a];
+        if (diff < 0 || diff * diff <= r2) within(lo, mid, q, r2, found);
+        if (diff >= 0 || diff * diff <= r2) within(mid + 1, hi, q, r2, found);
+    }
+
+    private double dist2(double[] q, int slot) {
+        double dx = q[0] - xyz[3 * slot], dy = q[1] - xyz[3 * slot + 1], dz = q[2] - xyz[3 * slot + 2];
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private static double[] toUnit(double lat, double lon, double[] out, int at) {
+        double phi = Math.toRadians(lat), lambda = Math.toRadians(lon);
+        out[at] = Math.cos(phi) * Math.cos(lambda);
+        out[at + 1] = Math.cos(phi) * Math.sin(lambda);
+        out[at + 2] = Math.sin(phi);
+        return out;
+    }
+
+    /** Tree slots by squared chord distance, kept sorted; bounded for k-nearest, unbounded for radius. */
+    private static final class Best {
+        int size;
+        int[] slot;
+        double[] d2;
+        private final int limit;
+
+        Best(int k, int limit) {
+            slot = new int[k];
+            d2 = new double[k];
+            this.limit = limit;
+        }
+
+        boolean full() {
+            return size == limit;
+        }
+
+        double worst() {
+            return d2[size - 1];
+        }
+
+        /** Insertion into the sorted list; answers are small, so this beats a heap. */
+        void offer(int s, double d) {
+            int i;
+            if (full()) {
+                if (d >= worst()) return;
+                i = size - 1; // the current worst drops off
+            } else {
+                if (size == slot.length) {
+                    slot = Arrays.copyOf(slot, size * 2);
+                    d2 = Arrays.copyOf(d2, size * 2);
+                }
+                i = size++;
+            }
+            while (i > 0 && d2[i - 1] > d) {
+                slot[i] = slot[i - 1];
+                d2[i] = d2[i - 1];
+                i--;
+            }
+            slot[i] = s;
+            d2[i] = d;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package app;
+
+import java.util.*;
+
+/**
+ * Multi-criteria router in the style of McRAPTOR. Round k boards one more
+ * train from every stop improved in round k - 1, so after the last round the
+ * destination holds every journey that is Pareto-optimal in arrival time,
+ * number of transfers and distance ridden. Fares are distance based, so the
+ * cheapest journey for any class is the one with the fewest miles.
+ */
+public class ParetoRaptor {
+
+    static final int MAX_ROUNDS = 6; // at most five transfers
+
+    private final Timetable tt;
+    private final FareEngine fares;
+    private final int[] edgeSeq;        // position of each edge within its train's run
+    private final ConnectionScan reach; // rules out unconnected pairs before any round
+
+    public ParetoRaptor(Timetable tt, FareEngine fares) {
+        this.tt = tt;
+        this.fares = fares;
+        this.edgeSeq = tt.edgeSequence();
+        this.reach = new ConnectionScan(tt);
+    }
+
+    /** One Pareto-optimal way to make the trip. */
+    public static class Journey {
+        public RouteFinder.PathResult path = new RouteFinder.PathResult();
+        public int transfers;
+        public long departure;   // epoch minutes of the first boarding
+        public long arrival;     // epoch minutes at the destination
+        public double miles;
+
+        /** Fare for the class, summed over the legs actually ridden. */
+        public double fare(String classType) {
+            return RouteFinder.priceForDistance(miles, classType);
+        }
+    }
+
+    private static final class Label {
+        final int arrival;
+        final double miles;
+        final int round;
+        final Label parent;        // label at the boarding stop, null at the origin
+        final int boardStop, boardEdge, alightEdge;
+        boolean dominated;         // dropped from its bag by a later label of the same round
+
+        Label(int arrival, double miles, int round, Label parent, int boardStop, int boardEdge, int alightEdge) {
+            this.arrival = arrival;
+            this.miles = miles;
+            this.round = round;
+            this.parent = parent;
+            this.boardStop = boardStop;
+            this.boardEdge = boardEdge;
+            this.alightEdge = alightEdge;
+        }
+
+        boolean dominates(int arr, double m) {
+            return arrival <= arr && miles <= m + 1e-9;
+        }
+    }
+
+    /** Every non-dominated journey, fastest first. Empty when the stations aren't connected. */
+    public List<Journey> findJourneys(String fromCode, String toCode) {
+        return findJourneys(fromCode, toCode, SearchBudget.UNLIMITED);
+    }
+
+    /** As above, but stops between labels once the budget runs out; the journeys found by then come back marked partial. */
+    public List<Journey> findJourneys(String fromCode, String toCode, SearchBudget budget) {
+        int from = tt.stationId(fromCode);
+        int to = tt.stationId(toCode);
+        if (from == -1 || to == -1 || from == to) return List.of();
+
+        // unconnected pairs scanned every departure of every round for nothing
+        if (reach.findRoute(fromCode, toCode, budget).bestPath.isEmpty()) return List.of();
+
+        int n = tt.stationCount();
+        @SuppressWarnings("unchecked")
+        List<Label>[] best = (List<Label>[]) new List<?>[n]; // non-dominated labels of all rounds so far
+        List<Label> marked = new ArrayList<>();
+        Label origin = new Label(Integer.MIN_VALUE, 0, 0, null, -1, -1, -1);
+        marked.add(origin);
+        best[from] = new ArrayList<>(List.of(origin));
+        List<Label> atTarget = new ArrayList<>();
+        // this round's boardings: the label with the fewest miles at each edge, and each train's first and last
+        Label[] boardAt = new Label[tt.connectionCount()];
+        int[] firstBoard = new int[tt.trains.length], lastBoard = new int[tt.trains.length];
+        Arrays.fill(firstBoard, -1);
+        int[] boarded = new int[64];
+        boolean partial = false;
+
+        for (int r = 1; r <= MAX_ROUNDS && !marked.isEmpty() && !partial; r++) {
+            final int round = r;
+            // every train leaving a marked stop once its label is ready, remembering where it can be boarded
+            int trains = 0;
+            for (Label l : marked) {
+                if (budget.exhausted()) {
+                    partial = true;
+                    break;
+                }
+                int p = stationOf(l, from);
+                int ready = l.parent == null ? l.arrival : l.arrival + RouteFinder.MIN_TRANSFER_MINUTES;
+                for (int e = firstDepartureAtOrAfter(p, ready); e < tt.offsets.get(p + 1); e++) {
+                    int t = tt.trainIdx.get(e);
+                    if (firstBoard[t] == -1) {
+                        if (trains == boarded.length) boarded = Arrays.copyOf(boarded, trains * 2);
+                        boarded[trains++] = t;
+                        firstBoard[t] = lastBoard[t] = e;
+                    } else if (edgeSeq[e] < edgeSeq[firstBoard[t]]) {
+                        firstBoard[t] = e;
+                    } else if (edgeSeq[e] > edgeSeq[lastBoard[t]]) {
+                        lastBoard[t] = e;
+                    }
+                    if (boardAt[e] == null || l.miles < boardAt[e].miles) boardAt[e] = l;
+                }
+            }
+            if (partial) break;
+
+            // then ride each train once, from its first boarding on
+            List<Label> next = new ArrayList<>();
+            for (int i = 0; i < trains; i++) {
+                if ((i & 63) == 0 && budget.exhausted()) {
+                    partial = true;
+                    break;
+                }
+                int t = boarded[i];
+                int h = firstBoard[t], last = edgeSeq[lastBoard[t]];
+                firstBoard[t] = -1;
+
+                Label carried = null; // the boarding with the fewest miles so far, null while none is riding
+                int boardStop = -1, boardEdge = -1;
+                double miles = 0;
+                for (int at = stationOf(boardAt[h], from); h != -1 && (carried != null || edgeSeq[h] <= last);
+                     h = tt.edgeNext.get(h)) {
+                    Label l = boardAt[h];
+                    if (l != null) {
+                        boardAt[h] = null;
+                        if (carried == null || l.miles < miles - 1e-9) {
+                            carried = l;
+                            boardStop = at;
+                            boardEdge = h;
+                            miles = l.miles;
+                        }
+                    }
+                    int q = tt.targets.get(h);
+                    if (carried != null) miles += fares.miles(at, q);
+                    at = q;
+                    if (carried == null) continue;
+
+                    int arr = tt.arrEpochMin.get(h);
+                    // riding on only gets later and longer, so once the target or a label that
+                    // could have caught this train here beats us, nothing further on is new
+                    if (q == from || dominated(atTarget, arr, miles) || caught(best[q], t, h, arr, miles, round)) {
+                        carried = null;
+                        continue;
+                    }
+                    if (dominated(best[q], arr, miles)) continue;
+
+                    Label nl = new Label(arr, miles, round, carried, boardStop, boardEdge, h);
+                    if (best[q] == null) best[q] = new ArrayList<>();
+                    best[q].removeIf(o -> {
+                        if (o.round != round || !nl.dominates(o.arrival, o.miles)) return false;
+                        o.dominated = true;
+                        return true;
+                    });
+                    best[q].add(nl);
+                    if (q == to) atTarget.add(nl);
+                    else next.add(nl);
+                }
+            }
+            // drop labels that a later insert in the same round dominated
+            next.removeIf(x -> x.dominated);
+            marked = next;
+        }
+
+        List<Journey> out = new ArrayList<>();
+        for (Label l : atTarget) {
+            boolean keep = true;
+            for (Label o : atTarget)
+                if (o != l && o.round <= l.round && o.dominates(l.arrival, l.miles)
+                        && (o.round < l.round || o.arrival < l.arrival || o.miles < l.miles - 1e-9)) keep = false;
+            if (keep) {
+                Journey j = toJourney(l);
+                j.path.partial = partial;
+                out.add(j);
+            }
+        }
+        out.sort(Comparator.comparingLong((Journey j) -> j.arrival).thenComparingInt(j -> j.transfers));
+        return out;
+    }
+
+    private static boolean dominated(List<Label> bag, int arr, double miles) {
+        if (bag == null) return false;
+        for (Label o : bag) if (o.dominates(arr, miles)) return true;
+        return false;
+    }
+
+    /**
+     * True when a label from an earlier round beats arriving at the stop by
+     * edge h and was on train t there too, or in time to change onto it: it
+     * then rides on from here itself, with no more transfers.
+     */
+    private boolean caught(List<Label> bag, int t, int h, int arr, double miles, int round) {
+        if (bag == null) return false;
+        int onward = tt.edgeNext.get(h);
+        if (onward == -1) return false;
+        for (Label o : bag) {
+            if (o.round >= round || !o.dominates(arr, miles)) continue;
+            if (tt.trainIdx.get(o.alightEdge) == t
+                    || (long) o.arrival + RouteFinder.MIN_TRANSFER_MINUTES <= tt.depEpochMin.get(onward)) return true;
+        }
+        return false;
+    }
+
+    private int stationOf(Label l, int from) {
+        return l.parent == null ? from : tt.targets.get(l.alightEdge);
+    }
+
+    /** First CSR edge out of station s departing at or after the given minute. */
+    private int firstDepartureAtOrAfter(int s, int minute) {
+        int lo = tt.offsets.get(s), hi = tt.offsets.get(s + 1);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (tt.depEpochMin.get(mid) < minute) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private Journey toJourney(Label last) {
+        Journey j = new Journey();
+        j.transfers = last.round - 1;
+        j.arrival = last.arrival;
+        j.miles = last.miles;
+
+        Deque<List<RouteFinder.Leg>> segments = new ArrayDeque<>();
+        for (Label l = last; l.parent != null; l = l.parent) {
+            List<RouteFinder.Leg> segment = new ArrayList<>();
+            int s = l.boardStop;
+            for (int h = l.boardEdge; ; h = tt.edgeNext.get(h)) {
+                segment.add(tt.edgeLeg(s, h));
+                if (h == l.alightEdge) break;
+                s = tt.targets.get(h);
+            }
+            segments.push(segment);
+            j.departure = tt.depEpochMin.get(l.boardEdge);
+        }
+        for (List<RouteFinder.Leg> segment : segments) j.path.bestPath.addAll(segment);
+        j.path.totalMinutes = j.arrival - j.departure;
+        return j;
+    }
+}
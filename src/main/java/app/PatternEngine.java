@@ -0,0 +1,187 @@
+package app;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Answers queries from {@link TransferPatterns}: each pattern for the pair is
+ * a short chain of stations, and each link of the chain is a lookup in a
+ * table of direct rides, so a query touches a handful of entries instead of
+ * the whole timetable.
+ *
+ * Direct rides are indexed by boarding station: the table of a station holds,
+ * for every station one train reaches from it without changing, all rides
+ * sorted by departure, plus for each position the ride with the earliest
+ * arrival from there on. The earliest arrival from a station pair after a
+ * given minute is then two binary searches. A station's table is built the
+ * first time a query boards there, so stations no pattern passes through
+ * never cost anything.
+ */
+public class PatternEngine implements RouteEngine {
+
+    private static final int INF = Integer.MAX_VALUE;
+
+    private final Timetable tt;
+    private final TransferPatterns patterns;
+    private final AtomicReferenceArray<Rides> rides; // by boarding station, built on first use
+
+    public PatternEngine(Timetable tt, TransferPatterns patterns) {
+        this.tt = tt;
+        this.patterns = patterns;
+        this.rides = new AtomicReferenceArray<>(tt.stationCount());
+    }
+
+    /**
+     * Over a re-timed copy of the timetable. The patterns are kept; the ride
+     * tables are ordered by the old times, so they are left to be built again
+     * as queries need them.
+     */
+    @Override
+    public PatternEngine retimed(Timetable retimed) {
+        return new PatternEngine(retimed, patterns);
+    }
+
+    // -------------------- Direct rides --------------------
+    /** Direct rides from one station: to[k] owns rides start[k] .. start[k + 1] - 1, by departure. */
+    private static final class Rides {
+        final int[] to;
+        final int[] start;
+        final int[] boardEdge, alightEdge;  // ride = board here, ride the train, leave after alightEdge
+        final int[] bestFrom;               // ride with the earliest arrival at or after this position
+
+        Rides(int[] to, int[] start, int[] boardEdge, int[] alightEdge, int[] bestFrom) {
+            this.to = to;
+            this.start = start;
+            this.boardEdge = boardEdge;
+            this.alightEdge = alightEdge;
+            this.bestFrom = bestFrom;
+        }
+    }
+
+    private Rides rides(int a) {
+        Rides r = rides.get(a);
+        if (r == null) {
+            r = buildRides(a);
+            // a racing query may have built the same table; keep whichever landed first
+            if (!rides.compareAndSet(a, null, r)) r = rides.get(a);
+        }
+        return r;
+    }
+
+    /**
+     * Every train from a to every later stop it makes. A station's edges are
+     * in departure order, so bucketing the rides by where they end keeps each
+     * bucket sorted by departure.
+     */
+    private Rides buildRides(int a) {
+        int n = tt.stationCount();
+        int lo = tt.offsets.get(a), hi = tt.offsets.get(a + 1);
+        int[] fill = new int[n];
+        int total = 0;
+        for (int e = lo; e < hi; e++)
+            for (int h = e; h != -1; h = tt.edgeNext.get(h), total++) fill[tt.targets.get(h)]++;
+
+        int stations = 0;
+        for (int s = 0; s < n; s++) if (fill[s] > 0) stations++;
+        int[] to = new int[stations], start = new int[stations + 1];
+        for (int s = 0, k = 0, at = 0; s < n; s++) {
+            if (fill[s] == 0) continue;
+            to[k] = s;
+            start[k++] = at;
+            at += fill[s];
+            fill[s] = start[k - 1];
+        }
+        start[stations] = total;
+
+        int[] boardEdge = new int[total], alightEdge = new int[total], bestFrom = new int[total];
+        for (int e = lo; e < hi; e++) {
+            for (int h = e; h != -1; h = tt.edgeNext.get(h)) {
+                int i = fill[tt.targets.get(h)]++;
+                boardEdge[i] = e;
+                alightEdge[i] = h;
+            }
+        }
+        for (int k = 0; k < stations; k++) {
+            int first = start[k], last = start[k + 1] - 1;
+            bestFrom[last] = last;
+            for (int i = last - 1; i >= first; i--) {
+                int next = bestFrom[i + 1];
+                bestFrom[i] = tt.arrEpochMin.get(alightEdge[i]) <= tt.arrEpochMin.get(alightEdge[next]) ? i : next;
+            }
+        }
+        return new Rides(to, start, boardEdge, alightEdge, bestFrom);
+    }
+
+    /** Earliest-arriving direct ride from a to b departing at or after the minute, or -1; an index into r. */
+    private int directRide(Rides r, int b, int minute) {
+        int k = Arrays.binarySearch(r.to, b);
+        if (k < 0) return -1;
+        int lo = r.start[k], hi = r.start[k + 1];
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (tt.depEpochMin.get(r.boardEdge[mid]) < minute) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo == r.start[k + 1] ? -1 : r.bestFrom[lo];
+    }
+
+    @Override
+    public RouteFinder.PathResult findRoute(String fromCode, String toCode, SearchBudget budget) {
+        return findRoute(fromCode, toCode, Integer.MIN_VALUE, budget);
+    }
+
+    /** Earliest arrival when leaving the origin no earlier than the given epoch minute. */
+    public RouteFinder.PathResult findRoute(String fromCode, String toCode, int departAfter, SearchBudget budget) {
+        RouteFinder.PathResult result = new RouteFinder.PathResult();
+        int from = tt.stationId(fromCode);
+        int to = tt.stationId(toCode);
+        if (from == -1 || to == -1 || from == to) return result;
+
+        int[] index = patterns.index[from], bounds = patterns.bounds[from], hops = patterns.hops[from];
+        int bestArrival = INF, bestPattern = -1, lookups = 0;
+        for (int p = index[to]; p < index[to + 1]; p++) {
+            if ((p & 63) == 0 && budget.exhausted()) {
+                result.partial = true;
+                break;
+            }
+            int at = from, ready = departAfter;
+            for (int i = bounds[p]; i < bounds[p + 1]; i++) {
+                lookups++;
+                Rides r = rides(at);
+                int ride = directRide(r, hops[i], ready);
+                if (ride == -1) {
+                    ready = INF;
+                    break;
+                }
+                at = hops[i];
+                ready = tt.arrEpochMin.get(r.alightEdge[ride]) + RouteFinder.MIN_TRANSFER_MINUTES;
+            }
+            if (ready == INF) continue;
+            int arrival = ready - RouteFinder.MIN_TRANSFER_MINUTES;
+            // ties go to the shorter chain, i.e. fewer changes
+            if (arrival < bestArrival || (arrival == bestArrival
+                    && bounds[p + 1] - bounds[p] < bounds[bestPattern + 1] - bounds[bestPattern])) {
+                bestArrival = arrival;
+                bestPattern = p;
+            }
+        }
+        result.expandedNodes = lookups;
+        if (bestPattern == -1) return result;
+
+        // replay the winning chain to collect its legs
+        int at = from, ready = departAfter, firstDeparture = 0;
+        for (int i = bounds[bestPattern]; i < bounds[bestPattern + 1]; i++) {
+            Rides r = rides(at);
+            int ride = directRide(r, hops[i], ready);
+            if (i == bounds[bestPattern]) firstDeparture = tt.depEpochMin.get(r.boardEdge[ride]);
+            for (int h = r.boardEdge[ride], s = at; ; s = tt.targets.get(h), h = tt.edgeNext.get(h)) {
+                result.bestPath.add(tt.edgeLeg(s, h));
+                if (h == r.alightEdge[ride]) break;
+            }
+            at = hops[i];
+            ready = tt.arrEpochMin.get(r.alightEdge[ride]) + RouteFinder.MIN_TRANSFER_MINUTES;
+        }
+        result.totalMinutes = bestArrival - firstDeparture;
+        return result;
+    }
+}
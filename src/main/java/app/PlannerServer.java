@@ -0,0 +1,472 @@
+package app;
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Headless planner: serves route and price queries over a local HTTP/JSON
+ * endpoint, no Swing or JavaFX needed.
+ *
+ *   GET /route?from=WAS&to=RNK[&class=business]
+ *   GET /route?fromState=DC&fromCity=Washington&toState=VA&toCity=Roanoke
+ *   GET /route?from=WAS&to=RNK&date=2026-02-14 (or &after=2026-02-14T06:00-05:00)
+ *                  (planned from the service calendar, so days past the current download work too)
+ *   GET /route?fromLat=38.90&fromLon=-77.04&toLat=37.27&toLon=-79.94[&after=2025-12-03T06:00-05:00]
+ *                  (door to door: nearby stations at each end tried together, walk/drive legs included)
+ *   GET /nearby?lat=38.90&lon=-77.04[&k=5 | &miles=25]   (closest stations first)
+ *   GET /stations?q=richmnd[&limit=10]   (autocomplete: "City, ST" places by prefix, then within a typo or two)
+ *   GET /options?from=WAS&to=RNK[&class=economy]   (every fastest / fewest transfers / cheapest trade-off)
+ *   GET /profile?from=WAS&to=RNK&after=2025-12-03T06:00-05:00&before=2025-12-03T12:00-05:00
+ *                  (every journey leaving in the window that no later one beats on arrival)
+ *   GET /price?from=WAS&to=RNK&class=economy
+ *   GET /matrix?fromState=VA&toState=VA[&format=csv][&class=economy]   (also from=WAS,NYP / to=...; minutes, -1 if unreachable;
+ *                  a matrix cut short by the deadline has "partial": true, or an X-Partial header on csv)
+ *   GET /health        (also reports route cache counters)
+ *   GET /metrics       (query latency percentiles, nodes expanded, load phase timings; same as JMX)
+ *
+ * Each request runs on its own virtual thread when the JVM has them (21+),
+ * otherwise on a pooled thread. Admission is bounded, so excess requests get
+ * 503 right away instead of queueing, and every query has a deadline. Route
+ * searches stop themselves a little before it and answer with the best they
+ * found, flagged "partial"; anything still running at the deadline gets 504.
+ */
+public class PlannerServer {
+
+    private static final Gson gson = new Gson();
+
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final ExecutorService queries;
+    private final Semaphore admission;
+    private final long timeoutMillis;
+    private final Writer queryLog; // request paths for LoadTest to replay, null unless -Dplanner.queryLog
+
+    public PlannerServer(int port, int maxConcurrent, long timeoutMillis) throws IOException {
+        this.admission = new Semaphore(maxConcurrent);
+        this.timeoutMillis = timeoutMillis;
+        String log = System.getProperty("planner.queryLog");
+        this.queryLog = log == null ? null : Files.newBufferedWriter(Path.of(log), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        ExecutorService virtual = virtualThreadExecutor();
+        this.handlers = virtual != null ? virtual : Executors.newCachedThreadPool();
+        this.queries = virtual != null ? virtual
+                : Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        server.setExecutor(handlers);
+        server.createContext("/route", ex -> handle(ex, this::route));
+        server.createContext("/options", ex -> handle(ex, this::options));
+        server.createContext("/profile", ex -> handle(ex, this::profile));
+        server.createContext("/price", ex -> handle(ex, this::price));
+        server.createContext("/nearby", ex -> handle(ex, this::nearby));
+        server.createContext("/stations", ex -> handle(ex, this::stations));
+        server.createContext("/matrix", ex -> handle(ex, this::matrix));
+        server.createContext("/health", ex -> send(ex, 200, Map.of(
+                "status", RouteFinder.snapshot().isRoutable() ? "ok" : "loading",
+                "version", RouteFinder.snapshot().version(),
+                "cache", RouteFinder.routeCache.stats())));
+        server.createContext("/metrics", ex -> send(ex, 200, Metrics.INSTANCE.snapshot()));
+    }
+
+    /** Executors.newVirtualThreadPerTaskExecutor() on JDK 21+, null on older runtimes. */
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    public void start() {
+        server.start();
+        System.out.println("Planner listening on http://127.0.0.1:" + server.getAddress().getPort());
+    }
+
+    public void stop() {
+        server.stop(0);
+        handlers.shutdownNow();
+        queries.shutdownNow();
+        if (queryLog != null) {
+            try {
+                queryLog.close();
+            } catch (IOException e) {
+                System.out.println("Could not close query log: " + e.getMessage());
+            }
+        }
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    // -------------------- Request plumbing --------------------
+    private interface Query {
+        Object run(RoutingSnapshot snap, Map<String, String> params, SearchBudget budget);
+    }
+
+    private void handle(HttpExchange ex, Query query) throws IOException {
+        if (!ex.getRequestMethod().equals("GET")) {
+            send(ex, 405, error("Only GET is supported."));
+            return;
+        }
+        logQuery(ex);
+        if (!admission.tryAcquire()) {
+            send(ex, 503, error("Planner is at capacity, retry shortly."));
+            return;
+        }
+        try {
+            Map<String, String> params = params(ex.getRequestURI().getRawQuery());
+            RoutingSnapshot snap = RouteFinder.snapshot();
+            if (!snap.isRoutable()) {
+                send(ex, 503, error("Timetable is still loading."));
+                return;
+            }
+
+            // leave the search time to turn its best-so-far into a response before the hard deadline
+            SearchBudget budget = SearchBudget.within(timeoutMillis * 9 / 10);
+            Future<Object> f = queries.submit(() -> query.run(snap, params, budget));
+            try {
+                send(ex, 200, f.get(timeoutMillis, TimeUnit.MILLISECONDS));
+            } catch (TimeoutException e) {
+                budget.cancel();
+                f.cancel(true);
+                send(ex, 504, error("Query timed out."));
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IllegalArgumentException) send(ex, 400, error(cause.getMessage()));
+                else send(ex, 500, error("Error calculating route: " + cause.getMessage()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                budget.cancel();
+                f.cancel(true);
+                send(ex, 503, error("Planner is shutting down."));
+            }
+        } finally {
+            admission.release();
+        }
+    }
+
+    private void logQuery(HttpExchange ex) {
+        if (queryLog == null) return;
+        synchronized (queryLog) {
+            try {
+                queryLog.write(ex.getRequestURI() + "\n");
+                queryLog.flush();
+            } catch (IOException e) {
+                System.out.println("Could not write query log: " + e.getMessage());
+            }
+        }
+    }
+
+    private static Map<String, String> params(String rawQuery) {
+        Map<String, String> out = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) return out;
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq <= 0) continue;
+            out.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return out;
+    }
+
+    private static Map<String, String> error(String message) {
+        return Map.of("error", message == null ? "unknown error" : message);
+    }
+
+    private static void send(HttpExchange ex, int status, Object body) throws IOException {
+        if (body instanceof Csv csv) {
+            ex.getResponseHeaders().set("Content-Type", "text/csv; charset=utf-8");
+            if (csv.matrix.isPartial()) ex.getResponseHeaders().set("X-Partial", "true");
+            ex.sendResponseHeaders(status, 0);
+            try (Writer out = new OutputStreamWriter(ex.getResponseBody(), StandardCharsets.UTF_8)) {
+                csv.matrix.writeCsv(out);
+            }
+            return;
+        }
+        byte[] bytes = gson.toJson(body).getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        ex.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    // -------------------- Endpoints --------------------
+    /** Station code from a from/to code parameter or a state + city pair. */
+    private static String resolve(RoutingSnapshot snap, Map<String, String> params, String side) {
+        String code = params.get(side);
+        if (code != null) {
+            if (!snap.stations().containsKey(code))
+                throw new IllegalArgumentException("Unknown station code: " + code);
+            return code;
+        }
+        String state = params.get(side + "State");
+        String city = params.get(side + "City");
+        code = snap.index().firstCode(state, city);
+        if (code == null)
+            throw new IllegalArgumentException("No valid station for " + side + ".");
+        return code;
+    }
+
+    private Object route(RoutingSnapshot snap, Map<String, String> params, SearchBudget budget) {
+        // station codes at both ends go to the engine as they are; a city or a coordinate gets nearby stations too
+        if (!params.containsKey("from") || !params.containsKey("to")) return trip(snap, params, budget);
+        String from = resolve(snap, params, "from");
+        String to = resolve(snap, params, "to");
+        if (from.equals(to))
+            throw new IllegalArgumentException("Can not route a train's destination to its start");
+
+        if (params.containsKey("date") || params.containsKey("after")) return dated(snap, params, from, to, budget);
+
+        RouteCache.Answer answer = RouteFinder.routeCache.route(snap, from, to, params.get("class"), budget);
+        RouteResponse out = toResponse(from, to, answer.route);
+        if (!Double.isNaN(answer.price)) out.price = answer.price;
+        return out;
+    }
+
+    private Object trip(RoutingSnapshot snap, Map<String, String> params, SearchBudget budget) {
+        double[] from = point(snap, params, "from"), to = point(snap, params, "to");
+        int after = params.containsKey("after") ? minute(params, "after") : Timetable.NO_TIME;
+        AccessRouter.Trip trip = snap.findTrip(from[0], from[1], to[0], to[1], after, budget);
+
+        RouteResponse out = toResponse(trip.access == null ? null : trip.access.code,
+                trip.egress == null ? null : trip.egress.code, trip.path);
+        if (trip.access == null) return out;
+        out.totalMinutes = trip.totalMinutes;
+        out.departs = Instant.ofEpochSecond(trip.departure * 60L).toString();
+        out.arrives = Instant.ofEpochSecond(trip.arrival * 60L).toString();
+        out.access = trip.access;
+        out.egress = trip.egress;
+        out.price = snap.lowestPrice(trip.access.code, trip.egress.code, params.getOrDefault("class", "economy"));
+        return out;
+    }
+
+    private Object nearby(RoutingSnapshot snap, Map<String, String> params, SearchBudget budget) {
+        double lat = coordinate(params, "lat", 90), lon = coordinate(params, "lon", 180);
+        int[] ids = params.containsKey("miles")
+                ? snap.nearby().within(lat, lon, Double.parseDouble(params.get("miles")))
+                : snap.nearby().nearest(lat, lon, Integer.parseInt(params.getOrDefault("k", "5")));
+        Timetable tt = snap.timetable();
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (int s : ids) {
+            ApiHandler.StationInfo info = tt.stations[s];
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("code", info.code);
+            m.put("name", info.name);
+            m.put("city", info.city + ", " + info.state);
+            m.put("miles", RouteFinder.haversineDistance(lat, lon, info.lat, info.lon));
+            if (tt.busOnly[s]) m.put("bus", true);
+            out.add(m);
+        }
+        return out;
+    }
+
+    private Object stations(RoutingSnapshot snap, Map<String, String> params, SearchBudget budget) {
+        String q = params.get("q");
+        if (q == null || q.isBlank())
+            throw new IllegalArgumentException("Missing q.");
+        int limit = Math.min(Integer.parseInt(params.getOrDefault("limit", "10")), 100);
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (String place : snap.index().search(q, limit)) {
+            int comma = place.lastIndexOf(", ");
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("city", place);
+            m.put("codes", snap.index().codesFor(place.substring(comma + 2), place.substring(0, comma)));
+            out.add(m);
+        }
+        return out;
+    }
+
+    /** {lat, lon} of one end: a station code, a coordinate, or the centre of a city's stations. */
+    private static double[] point(RoutingSnapshot snap, Map<String, String> params, String side) {
+        if (params.containsKey(side)) {
+            ApiHandler.StationInfo info = snap.stations().get(resolve(snap, params, side));
+            return new double[]{info.lat, info.lon};
+        }
+        if (params.containsKey(side + "Lat"))
+            return new double[]{coordinate(params, side + "Lat", 90), coordinate(params, side + "Lon", 180)};
+        double[] centre = snap.cityCentre(params.get(side + "State"), params.get(side + "City"));
+        if (centre == null)
+            throw new IllegalArgumentException("No valid station for " + side + ".");
+        return centre;
+    }
+
+    private static double coordinate(Map<String, String> params, String name, double limit) {
+        String raw = params.get(name);
+        if (raw == null)
+            throw new IllegalArgumentException("Missing " + name + ".");
+        double v = Double.parseDouble(raw);
+        if (!(Math.abs(v) <= limit))
+            throw new IllegalArgumentException(name + " must be within +-" + (int) limit + ".");
+        return v;
+    }
+
+    private Object options(RoutingSnapshot snap, Map<String, String> params, SearchBudget budget) {
+        String from = resolve(snap, params, "from");
+        String to = resolve(snap, params, "to");
+        String classType = params.getOrDefault("class", "economy");
+        return toResponses(from, to, snap.findJourneys(from, to, budget), classType);
+    }
+
+    private Object profile(RoutingSnapshot snap, Map<String, String> params, SearchBudget budget) {
+        String from = resolve(snap, params, "from");
+        String to = resolve(snap, params, "to");
+        int after = minute(params, "after");
+        int before = minute(params, "before");
+        if (before < after)
+            throw new IllegalArgumentException("before must not be earlier than after.");
+        String classType = params.getOrDefault("class", "economy");
+        return toResponses(from, to, snap.findProfile(from, to, after, before, budget), classType);
+    }
+
+    private static RouteResponse dated(RoutingSnapshot snap, Map<String, String> params, String from, String to,
+                                       SearchBudget budget) {
+        int after;
+        if (params.containsKey("after")) {
+            after = minute(params, "after");
+        } else {
+            try {
+                after = ServiceCalendar.midnight(LocalDate.parse(params.get("date")).toEpochDay());
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("date must look like 2026-02-14.");
+            }
+        }
+        ConnectionScan.Reach reach = snap.findRouteAt(from, to, after, budget);
+        RouteResponse out = toResponse(from, to, reach.path);
+        if (reach.target != -1) {
+            out.departs = Instant.ofEpochSecond(reach.departure * 60L).toString();
+            out.arrives = Instant.ofEpochSecond(reach.arrival * 60L).toString();
+            if (params.containsKey("class")) out.price = snap.lowestPrice(from, to, params.get("class"));
+        }
+        return out;
+    }
+
+    private static int minute(Map<String, String> params, String name) {
+        int minute = Timetable.epochMinutes(params.get(name));
+        if (minute == Timetable.NO_TIME)
+            throw new IllegalArgumentException(name + " must be an ISO-8601 time like 2025-12-03T06:00-05:00.");
+        return minute;
+    }
+
+    private static List<RouteResponse> toResponses(String from, String to, List<ParetoRaptor.Journey> journeys, String classType) {
+        List<RouteResponse> out = new ArrayList<>();
+        for (ParetoRaptor.Journey j : journeys) {
+            RouteResponse r = toResponse(from, to, j.path);
+            r.departs = Instant.ofEpochSecond(j.departure * 60).toString();
+            r.arrives = Instant.ofEpochSecond(j.arrival * 60).toString();
+            r.transfers = j.transfers;
+            r.miles = j.miles;
+            r.price = j.fare(classType);
+            out.add(r);
+        }
+        return out;
+    }
+
+    private static RouteResponse toResponse(String from, String to, RouteFinder.PathResult result) {
+        RouteResponse out = new RouteResponse();
+        out.from = from;
+        out.to = to;
+        out.found = !result.bestPath.isEmpty();
+        out.totalMinutes = result.totalMinutes;
+        if (result.partial) out.partial = true;
+        for (RouteFinder.Leg leg : result.bestPath) {
+            LegResponse l = new LegResponse();
+            l.train = leg.train.number;
+            l.from = leg.from.station.code;
+            l.fromCity = leg.from.station.city + ", " + leg.from.station.state;
+            l.to = leg.to.station.code;
+            l.toCity = leg.to.station.city + ", " + leg.to.station.state;
+            l.minutes = leg.minutes;
+            if (leg.from.bus || leg.to.bus) l.bus = true;
+            out.legs.add(l);
+        }
+        return out;
+    }
+
+    private Object price(RoutingSnapshot snap, Map<String, String> params, SearchBudget budget) {
+        String from = resolve(snap, params, "from");
+        String to = resolve(snap, params, "to");
+        String classType = params.getOrDefault("class", "economy");
+        return Map.of("from", from, "to", to, "class", classType, "price", snap.lowestPrice(from, to, classType));
+    }
+
+    private Object matrix(RoutingSnapshot snap, Map<String, String> params, SearchBudget budget) {
+        TravelMatrix m = snap.matrix(codeList(snap, params, "from"), codeList(snap, params, "to"), params.get("class"),
+                budget);
+        return "csv".equalsIgnoreCase(params.get("format")) ? new Csv(m) : m;
+    }
+
+    /** Comma separated codes, or every station in a state (ALL for the whole network). */
+    private static List<String> codeList(RoutingSnapshot snap, Map<String, String> params, String side) {
+        String codes = params.get(side);
+        if (codes != null) return List.of(codes.split(","));
+        String state = params.get(side + "State");
+        if (state == null)
+            throw new IllegalArgumentException("Give " + side + " codes or " + side + "State.");
+        List<String> out = TravelMatrix.codesIn(snap, state);
+        if (out.isEmpty())
+            throw new IllegalArgumentException("No stations in " + state + ".");
+        return out;
+    }
+
+    private record Csv(TravelMatrix matrix) {
+    }
+
+    static class RouteResponse {
+        String from;
+        String to;
+        boolean found;
+        Boolean partial; // only sent when the search hit its deadline
+        long totalMinutes;
+        String departs;
+        String arrives;
+        Integer transfers;
+        Double miles;
+        Double price;
+        AccessRouter.Access access; // door to door routes only
+        AccessRouter.Access egress;
+        List<LegResponse> legs = new ArrayList<>();
+    }
+
+    static class LegResponse {
+        int train;
+        String from;
+        String fromCity;
+        String to;
+        String toCity;
+        long minutes;
+        Boolean bus; // a connecting bus rather than a train
+    }
+
+    // -------------------- Entry point --------------------
+    public static void main(String[] args) throws Exception {
+        int port = Integer.getInteger("planner.port", 8080);
+        int maxConcurrent = Integer.getInteger("planner.maxConcurrent", 2000);
+        long timeoutMillis = Long.getLong("planner.timeoutMs", 2000L);
+
+        Metrics.register();
+        System.out.println("Loading Amtrak data...");
+        RouteFinder.loadTimetable();
+        if (Boolean.parseBoolean(System.getProperty("planner.watch", "true")))
+            LiveUpdater.watch(Path.of(ApiHandler.ROUTES_FILE).getParent());
+        new PlannerServer(port, maxConcurrent, timeoutMillis).start();
+    }
+}
@@ -0,0 +1,201 @@
+package app;
+
+import java.nio.IntBuffer;
+import java.util.*;
+
+/**
+ * Range queries with profile connection scan: every journey leaving the
+ * origin inside a time window that no other journey beats on both departure
+ * (later) and arrival (earlier), from a single backwards pass.
+ *
+ * Connections are scanned latest first. For each one the best arrival at the
+ * destination is the minimum of getting off there, staying on the train, or
+ * changing at the next stop into that stop's profile. Each station keeps its
+ * profile as (departure, arrival) pairs, appended in falling departure order
+ * and each arriving strictly earlier than the last, so "best arrival when
+ * ready at minute x" is a binary search.
+ */
+public class ProfileScan {
+
+    private static final int INF = Integer.MAX_VALUE;
+
+    private final Timetable tt;
+    private final FareEngine fares;
+
+    public ProfileScan(Timetable tt, FareEngine fares) {
+        this.tt = tt;
+        this.fares = fares;
+    }
+
+    /** Growable profile of one station: parallel columns, newest (earliest departure) last. */
+    private static final class Profile {
+        int size;
+        int[] dep = new int[4], arr = new int[4], enter = new int[4], exit = new int[4];
+
+        void add(int d, int a, int enterConn, int exitConn) {
+            if (size > 0 && dep[size - 1] == d) size--; // same departure, better arrival
+            if (size == dep.length) {
+                int cap = size * 2;
+                dep = Arrays.copyOf(dep, cap);
+                arr = Arrays.copyOf(arr, cap);
+                enter = Arrays.copyOf(enter, cap);
+                exit = Arrays.copyOf(exit, cap);
+            }
+            dep[size] = d;
+            arr[size] = a;
+            enter[size] = enterConn;
+            exit[size] = exitConn;
+            size++;
+        }
+
+        /** Entry with the earliest arrival among those departing at or after the minute, or -1. */
+        int bestFrom(int minute) {
+            int lo = 0, hi = size; // departures fall with the index
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (dep[mid] >= minute) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo - 1;
+        }
+    }
+
+    /**
+     * Non-dominated journeys leaving fromCode between the two epoch minutes
+     * (inclusive), latest departure first. Empty when none leave in the window.
+     */
+    public List<ParetoRaptor.Journey> findProfile(String fromCode, String toCode, int windowStart, int windowEnd) {
+        return findProfile(fromCode, toCode, windowStart, windowEnd, SearchBudget.UNLIMITED);
+    }
+
+    /**
+     * As above, but stops once the budget runs out. The scan runs latest
+     * first, so a cut-short answer holds the later departures of the window,
+     * marked partial.
+     */
+    public List<ParetoRaptor.Journey> findProfile(String fromCode, String toCode, int windowStart, int windowEnd,
+                                                  SearchBudget budget) {
+        int from = tt.stationId(fromCode);
+        int to = tt.stationId(toCode);
+        if (from == -1 || to == -1 || from == to || windowEnd < windowStart) return List.of();
+
+        IntBuffer depStop = tt.depStop, arrStop = tt.arrStop, depTime = tt.depTime, arrTime = tt.arrTime, trip = tt.trip;
+        int n = depTime.limit();
+        Profile[] profiles = new Profile[tt.stationCount()];
+        int[] tripBest = new int[tt.trains.length];   // arrival at the destination staying on from here
+        int[] tripExit = new int[tt.trains.length];   // and the connection to get off after
+        Arrays.fill(tripBest, INF);
+
+        // the last train out inside the window bounds every useful arrival; nothing departing later matters
+        int lastOut = lowerBound(tt.depEpochMin, tt.offsets.get(from), tt.offsets.get(from + 1), windowEnd + 1) - 1;
+        if (lastOut < tt.offsets.get(from) || tt.depEpochMin.get(lastOut) < windowStart) return List.of();
+        int horizon = earliestArrival(from, to, tt.depEpochMin.get(lastOut), windowEnd);
+        int first = lowerBound(depTime, 0, n, windowStart);
+        int last = horizon == INF ? n : lowerBound(depTime, 0, n, horizon + 1);
+
+        boolean partial = false;
+        for (int c = last - 1; c >= first; ) {
+            if (budget.exhausted()) {
+                partial = true;
+                break;
+            }
+            for (int end = Math.max(first, c - 1023); c >= end; c--) {
+                int t = trip.get(c);
+                int v = arrStop.get(c);
+                int best = INF, exit = -1;
+                if (v == to) {
+                    best = arrTime.get(c);
+                    exit = c;
+                }
+                if (tripBest[t] < best) {
+                    best = tripBest[t];
+                    exit = tripExit[t];
+                }
+                if (v != to && profiles[v] != null) {
+                    int k = profiles[v].bestFrom(arrTime.get(c) + RouteFinder.MIN_TRANSFER_MINUTES);
+                    if (k != -1 && profiles[v].arr[k] < best) {
+                        best = profiles[v].arr[k];
+                        exit = c;
+                    }
+                }
+                if (best == INF) continue;
+                if (best < tripBest[t]) {
+                    tripBest[t] = best;
+                    tripExit[t] = exit;
+                }
+
+                int u = depStop.get(c);
+                if (u == to || (u == from && depTime.get(c) > windowEnd)) continue;
+                Profile p = profiles[u];
+                if (p == null) p = profiles[u] = new Profile();
+                if (p.size == 0 || best < p.arr[p.size - 1]) p.add(depTime.get(c), best, c, exit);
+            }
+        }
+
+        List<ParetoRaptor.Journey> out = new ArrayList<>();
+        Profile origin = profiles[from];
+        if (origin == null) return out;
+        for (int k = 0; k < origin.size; k++) {
+            ParetoRaptor.Journey j = toJourney(profiles, origin, k, to);
+            j.path.partial = partial;
+            out.add(j);
+        }
+        return out;
+    }
+
+    /** Forward connection scan leaving the origin between the two minutes; INF if the target is out of reach. */
+    private int earliestArrival(int from, int to, int minute, int latest) {
+        int[] earliest = new int[tt.stationCount()];
+        boolean[] boarded = new boolean[tt.trains.length];
+        Arrays.fill(earliest, INF);
+        earliest[from] = minute;
+        for (int c = lowerBound(tt.depTime, 0, tt.depTime.limit(), minute); c < tt.depTime.limit(); c++) {
+            int dep = tt.depTime.get(c);
+            if (dep >= earliest[to]) break;
+            int t = tt.trip.get(c);
+            if (!boarded[t]) {
+                int s = tt.depStop.get(c);
+                if (earliest[s] == INF) continue;
+                if (s != from && (long) earliest[s] + RouteFinder.MIN_TRANSFER_MINUTES > dep) continue;
+                if (s == from && dep > latest) continue;
+                boarded[t] = true;
+            }
+            earliest[tt.arrStop.get(c)] = Math.min(earliest[tt.arrStop.get(c)], tt.arrTime.get(c));
+        }
+        return earliest[to];
+    }
+
+    /** First index in sorted[lo, hi) holding at least the minute. */
+    private static int lowerBound(IntBuffer sorted, int lo, int hi, int minute) {
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted.get(mid) < minute) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /** Follows profile entries train by train from the origin entry to the destination. */
+    private ParetoRaptor.Journey toJourney(Profile[] profiles, Profile p, int k, int to) {
+        ParetoRaptor.Journey j = new ParetoRaptor.Journey();
+        j.departure = p.dep[k];
+        j.arrival = p.arr[k];
+        int trains = 0;
+        while (true) {
+            trains++;
+            int exit = p.exit[k];
+            for (int c = p.enter[k]; ; c = tt.nextInTrip.get(c)) {
+                j.path.bestPath.add(tt.connectionLeg(c));
+                j.miles += fares.connectionMiles(c);
+                if (c == exit) break;
+            }
+            int v = tt.arrStop.get(exit);
+            if (v == to) break;
+            p = profiles[v];
+            k = p.bestFrom(tt.arrTime.get(exit) + RouteFinder.MIN_TRANSFER_MINUTES);
+        }
+        j.transfers = trains - 1;
+        j.path.totalMinutes = j.arrival - j.departure;
+        return j;
+    }
+}
@@ -0,0 +1,194 @@
+package app;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of route answers keyed by (from, to, class) and bound
+ * to one routing snapshot: the first lookup against a newer
+ * snapshot drops every entry. Concurrent misses on the same key share one
+ * computation (single flight). Cached results are shared between threads and
+ * must be treated as read-only. Only undated searches are cached; a query
+ * from a given time goes straight to {@link RoutingSnapshot#findRouteAt}.
+ */
+public class RouteCache {
+
+    /** A route plus its price for the requested class (NaN when no class was asked for). */
+    public static class Answer {
+        public final RouteFinder.PathResult route;
+        public final double price;
+
+        Answer(RouteFinder.PathResult route, double price) {
+            this.route = route;
+            this.price = price;
+        }
+    }
+
+    private record Key(long version, String from, String to, String classType) {}
+
+    private static final long WAIT_SLICE_MS = 5; // how often a waiting caller looks at its own budget
+
+    private final int capacity;
+    private long version = -1;
+    private final LinkedHashMap<Key, Answer> entries;
+    private final ConcurrentHashMap<Key, CompletableFuture<Answer>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    public RouteCache(int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(capacity * 4 / 3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Answer> eldest) {
+                if (size() <= RouteCache.this.capacity) return false;
+                evictions.increment();
+                return true;
+            }
+        };
+    }
+
+    /** Route with no price. */
+    public Answer route(RoutingSnapshot snap, String fromCode, String toCode) {
+        return route(snap, fromCode, toCode, null);
+    }
+
+    /**
+     * Cached answer for a query, computing it at most once per key even when
+     * several threads ask at the same time.
+     */
+    public Answer route(RoutingSnapshot snap, String fromCode, String toCode, String classType) {
+        return route(snap, fromCode, toCode, classType, SearchBudget.UNLIMITED);
+    }
+
+    /**
+     * As above with a search budget. An answer cut short by its budget is
+     * returned but never cached, and a caller that was waiting on someone
+     * else's cut-short search runs its own with its own budget. Waiting on
+     * someone else's search spends this caller's budget too: once it runs
+     * out the answer is an empty partial one.
+     */
+    public Answer route(RoutingSnapshot snap, String fromCode, String toCode, String classType, SearchBudget budget) {
+        Key key = new Key(snap.version(), fromCode, toCode, classType == null ? null : classType.toLowerCase());
+
+        synchronized (entries) {
+            if (version != snap.version()) {
+                if (snap.version() < version) return compute(snap, key, budget); // a stale snapshot, don't pollute
+                entries.clear();
+                version = snap.version();
+            }
+            Answer cached = entries.get(key);
+            if (cached != null) {
+                hits.increment();
+                return cached;
+            }
+        }
+        misses.increment();
+
+        CompletableFuture<Answer> mine = new CompletableFuture<>();
+        CompletableFuture<Answer> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            coalesced.increment();
+            Answer shared = await(running, budget);
+            if (shared == null) return new Answer(cutShort(), Double.NaN);
+            return shared.route.partial ? compute(snap, key, budget) : shared;
+        }
+        try {
+            Answer answer = compute(snap, key, budget);
+            synchronized (entries) {
+                if (version == key.version() && !answer.route.partial) entries.put(key, answer);
+            }
+            mine.complete(answer);
+            return answer;
+        } catch (RuntimeException | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    /**
+     * Another caller's answer, waited for in short slices so this caller's
+     * budget still stops it; null once the budget runs out first. Whatever
+     * the other search threw is rethrown here as it was.
+     */
+    private static Answer await(CompletableFuture<Answer> running, SearchBudget budget) {
+        while (!budget.exhausted()) {
+            try {
+                return running.get(WAIT_SLICE_MS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // still searching
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt(); // counts as cancelling: exhausted() now says so
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException r) throw r;
+                if (e.getCause() instanceof Error err) throw err;
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return null;
+    }
+
+    private static RouteFinder.PathResult cutShort() {
+        RouteFinder.PathResult route = new RouteFinder.PathResult();
+        route.bestPath = Collections.emptyList();
+        route.partial = true;
+        return route;
+    }
+
+    private static Answer compute(RoutingSnapshot snap, Key key, SearchBudget budget) {
+        RouteFinder.PathResult route = snap.findRoute(key.from(), key.to(), budget);
+        route.bestPath = Collections.unmodifiableList(route.bestPath);
+        double price = key.classType() == null || route.bestPath.isEmpty()
+                ? Double.NaN : snap.lowestPrice(key.from(), key.to(), key.classType());
+        return new Answer(route, price);
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    // -------------------- Counters --------------------
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /** Misses that waited for another thread's computation instead of searching themselves. */
+    public long coalesced() {
+        return coalesced.sum();
+    }
+
+    public Map<String, Long> stats() {
+        Map<String, Long> out = new LinkedHashMap<>();
+        out.put("size", (long) size());
+        out.put("hits", hits());
+        out.put("misses", misses());
+        out.put("evictions", evictions());
+        out.put("coalesced", coalesced());
+        return out;
+    }
+}
@@ -0,0 +1,19 @@
+package app;
+
+/** A search strategy that answers station-to-station route queries. */
+public interface RouteEngine {
+
+    default RouteFinder.PathResult findRoute(String fromCode, String toCode) {
+        return findRoute(fromCode, toCode, SearchBudget.UNLIMITED);
+    }
+
+    /** Gives up once the budget runs out, returning the best route found so far marked partial. */
+    RouteFinder.PathResult findRoute(String fromCode, String toCode, SearchBudget budget);
+
+    /**
+     * The same engine over a re-timed copy of its timetable (same stations,
+     * trains and hops, only times moved), keeping any preprocessing that
+     * doesn't depend on times.
+     */
+    RouteEngine retimed(Timetable retimed);
+}
@@ -1,26 +1,51 @@
 package app;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 import app.ApiHandler.StationInfo;
 
 public class RouteFinder {
 
-    private static final int MAX_LEGS = 8; // maximum train legs allowed
-    public static Map<String, StationInfo> stationsMap = new HashMap<>();
-    static Map<String, List<Leg>> departures = new HashMap<>();
+    static final int MAX_LEGS = 8; // maximum trains per journey (bfs engine)
+    static final int MIN_TRANSFER_MINUTES = 10; // time needed to change trains at a station
+    static final long SEARCH_MILLIS = Long.getLong("routefinder.searchMs", 3000); // GUI search deadline
+    // "csa" (connection scan, default), "astar" (goal-directed), "dijkstra", "patterns" (precomputed transfer patterns) or "bfs" (original fewest-legs search)
+    static final String ENGINE_NAME = System.getProperty("routefinder.engine", "csa");
+    private static final AtomicReference<RoutingSnapshot> current = new AtomicReference<>(RoutingSnapshot.EMPTY);
+    // most traffic is a few hundred popular pairs; entries are dropped whenever a new snapshot is published
+    public static final RouteCache routeCache = new RouteCache(Integer.getInteger("routecache.size", 1024));
+
+    // -------------------- Snapshot --------------------
+    /** The routing data queries should run against; take it once and use it for the whole query. */
+    public static RoutingSnapshot snapshot() {
+        return current.get();
+    }
+
+    /** Atomically replaces the routing data; queries already running keep their old snapshot. */
+    public static void publish(RoutingSnapshot snap) {
+        current.set(snap);
+    }
 
     // -------------------- Station Map --------------------
+    /** Station map only; {@link #buildLegGraph} already derives it, so this is for callers that skip the timetable. */
     public static void populateStationsMap(List<ApiHandler.Route> routes) {
-        stationsMap.clear();
-        for (ApiHandler.Route r : routes) {
-            for (ApiHandler.Train t : r.trains) {
-                for (ApiHandler.Station s : t.stations) {
-                    if (s.station != null && s.station.code != null) {
-                        stationsMap.put(s.station.code, s.station);
-                    }
-                }
-            }
-        }
+        long start = System.nanoTime();
+        Map<String, StationInfo> stationsMap = new ConcurrentHashMap<>();
+        routes.parallelStream()
+                .flatMap(r -> r.trains.stream())
+                .flatMap(t -> t.stations.stream())
+                .filter(s -> s.station != null && s.station.code != null)
+                .forEach(s -> stationsMap.putIfAbsent(s.station.code, s.station));
+        // built outside any CAS retry; if a newer snapshot slipped in meanwhile, redo it against that one
+        RoutingSnapshot old, snap;
+        do {
+            old = current.get();
+            snap = old.withStations(stationsMap);
+        } while (!current.compareAndSet(old, snap));
+        Metrics.phase("stationMap", start);
         System.out.println("Loaded station codes: " + stationsMap.size());
     }
 
@@ -38,12 +63,15 @@ public class RouteFinder {
     }
 
     public static double calculateLowestPrice(String fromCode, String toCode, String classType) {
-        StationInfo from = stationsMap.get(fromCode);
-        StationInfo to = stationsMap.get(toCode);
-        if (from == null || to == null)
-            throw new IllegalArgumentException("Station code not found.");
+        return snapshot().lowestPrice(fromCode, toCode, classType);
+    }
+
+    static double priceForDistance(double distance, String classType) {
+        return distance * perMile(classType);
+    }
 
-        double distance = haversineDistance(from.lat, from.lon, to.lat, to.lon);
+    /** Fare per mile for the class. */
+    static double perMile(String classType) {
         double baseRate = 0.28;
         double classMultiplier = switch (classType.toLowerCase()) {
             case "business" -> 1.5;
@@ -51,7 +79,7 @@ public class RouteFinder {
             case "private" -> 2.0;
             default -> 1.0;
         };
-        return distance * baseRate * classMultiplier;
+        return baseRate * classMultiplier;
     }
 
     // -------------------- Leg --------------------
@@ -62,135 +90,101 @@ public class RouteFinder {
         long minutes;
     }
 
-    // -------------------- Build Full Leg Graph --------------------
+    // -------------------- Build Timetable + Routing Engine --------------------
+    /**
+     * Builds the timetable and publishes it with the station map, state and
+     * city lists derived from it, so the routes are only walked once.
+     */
     public static void buildLegGraph(List<ApiHandler.Route> routes) {
-        departures.clear();
-         for (ApiHandler.Route r : routes) { 
-            // For every train, create legs from every station to all stations after it
-            for (ApiHandler.Train t : r.trains) {
-                List<ApiHandler.Station> stops = t.stations;
-                for (int i = 0; i < stops.size() - 1; i++) {
-                    for (int j = i + 1; j < stops.size(); j++) {
-                        ApiHandler.Station from = stops.get(i);
-                        ApiHandler.Station to = stops.get(j);
-                        if (from.station == null || to.station == null) continue;
-
-                        long mins = 0;
-                        try {
-                            var dep = java.time.ZonedDateTime.parse(
-                                    from.departureActual != null ? from.departureActual : from.departureScheduled);
-                            var arr = java.time.ZonedDateTime.parse(
-                                    to.arrivalActual != null ? to.arrivalActual : to.arrivalScheduled);
-                            mins = java.time.Duration.between(dep, arr).toMinutes();
-                        } catch (Exception ignored) {}
-
-                        Leg leg = new Leg();
-                        leg.train = t;
-                        leg.from = from;
-                        leg.to = to;
-                        leg.minutes = mins;
-
-                        departures.computeIfAbsent(from.station.code, k -> new ArrayList<>()).add(leg);
-                    }
-                }
-            }
-        }
-
-        System.out.println("Leg graph built. Total departure points: " + departures.size());
+        publish(RoutingSnapshot.of(Timetable.fromRoutes(routes)));
     }
 
-    // -------------------- Shortest Route --------------------
-    public static PathResult findShortestRoute(List<ApiHandler.Route> allRoutes, String fromCode, String toCode) {
-        PathResult result = new PathResult();
-
-        // ---------- main logic - direct train ----------
-        for (ApiHandler.Route r : allRoutes) {
-            for (ApiHandler.Train t : r.trains) {
-                int startIndex = -1, destIndex = -1;
-                for (int i = 0; i < t.stations.size(); i++) {
-                    ApiHandler.Station s = t.stations.get(i);
-                    if (s.station == null) continue;
-                    if (s.station.code.equals(fromCode)) startIndex = i;
-                    if (s.station.code.equals(toCode)) destIndex = i;
-                }
-
-                if (startIndex != -1 && destIndex != -1 && startIndex < destIndex) {
-                    // direct train hit
-                    for (int i = startIndex; i < destIndex; i++) {
-                        Leg leg = new Leg();
-                        leg.train = t;
-                        leg.from = t.stations.get(i);
-                        leg.to = t.stations.get(i + 1);
-                        try {
-                            var dep = java.time.ZonedDateTime.parse(
-                                    leg.from.departureActual != null ? leg.from.departureActual : leg.from.departureScheduled);
-                            var arr = java.time.ZonedDateTime.parse(
-                                    leg.to.arrivalActual != null ? leg.to.arrivalActual : leg.to.arrivalScheduled);
-                            leg.minutes = java.time.Duration.between(dep, arr).toMinutes();
-                        } catch (Exception ignored) {
-                            leg.minutes = 0;
-                        }
-                        result.bestPath.add(leg);
-                        result.totalMinutes += leg.minutes;
-                    }
-                    return result;
-                }
-            }
+    /** Callbacks from {@link #loadTimetable(LoadListener)}; they can arrive on any thread. */
+    public interface LoadListener {
+        /** Fraction of the named step done so far, or -1 when the step can't tell. */
+        default void progress(String step, double done) {
         }
 
-        // ---------- fall back 2: BFS / multi-leg search ----------
-        class QueueNode {
-            String stationCode;
-            List<Leg> path;
-            long totalMinutes;
-            ApiHandler.Train currentTrain;
-
-            QueueNode(String code, List<Leg> path, long mins, ApiHandler.Train train) {
-                this.stationCode = code;
-                this.path = path;
-                this.totalMinutes = mins;
-                this.currentTrain = train;
-            }
+        /** The station map and state/city lists are ready; routing is not yet. */
+        default void stationsReady(RoutingSnapshot stations) {
         }
+    }
 
-        Queue<QueueNode> queue = new LinkedList<>();       
-         // use station and or train as visited key to allow transfers
-        Set<String> visited = new HashSet<>();
-        queue.add(new QueueNode(fromCode, new ArrayList<>(), 0, null));
-
-        while (!queue.isEmpty()) {
-            QueueNode node = queue.poll();
+    public static void loadTimetable() throws Exception {
+        loadTimetable(new LoadListener() {});
+    }
 
-            if (node.stationCode.equals(toCode)) {
-                result.bestPath = node.path;
-                result.totalMinutes = node.totalMinutes;
-                return result;
+    /**
+     * Loads the timetable and station map from the binary snapshot if it still
+     * matches routes.json, otherwise streams routes.json and rewrites the snapshot.
+     * On a first load the stations are published before the engine is built,
+     * so a UI can fill its pickers while route search is still getting ready.
+     */
+    public static void loadTimetable(LoadListener listener) throws Exception {
+        Path source = Path.of(ApiHandler.ROUTES_FILE);
+        Path snapshot = Path.of(TimetableSnapshot.SNAPSHOT_FILE);
+        TimetableSnapshot.Stamp stamp = TimetableSnapshot.Stamp.of(source);
+
+        listener.progress("Reading timetable snapshot", -1);
+        Timetable tt = TimetableSnapshot.read(snapshot, stamp);
+        if (tt != null) {
+            System.out.println("Timetable mapped from snapshot. Connections: " + tt.connectionCount());
+        } else {
+            Timetable.Builder b = ApiHandler.streamInto(source, new Timetable.Builder(),
+                    done -> listener.progress("Reading routes", done));
+            listener.progress("Building timetable", -1);
+            tt = b.build();
+            try {
+                TimetableSnapshot.write(tt, stamp, snapshot);
+                // switch to the file, so this process shares its pages with any other reading it
+                Timetable shared = TimetableSnapshot.read(snapshot, stamp);
+                if (shared != null) tt = shared;
+            } catch (IOException e) {
+                System.err.println("Could not write timetable snapshot: " + e.getMessage());
             }
+        }
 
-            if (node.path.size() >= MAX_LEGS) continue;
-
-            for (Leg leg : departures.getOrDefault(node.stationCode, List.of())) {
-                String key = leg.to.station.code + "_" + leg.train.number + "_" + node.path.size();
-                if (visited.contains(key)) continue;
-                visited.add(key);
+        RoutingSnapshot stations = RoutingSnapshot.stationsOf(tt);
+        // a reload keeps answering from the old snapshot until the new one is complete
+        if (snapshot().timetable() == null) publish(stations);
+        listener.stationsReady(stations);
 
-                List<Leg> newPath = new ArrayList<>(node.path);
-                newPath.add(leg);
+        listener.progress("Preparing route search", -1);
+        RoutingSnapshot snap = stations.withTimetable(tt);
+        publish(snap);
+        System.out.println("Loaded station codes: " + snap.stations().size());
+    }
 
-                ApiHandler.Train nextTrain = (node.currentTrain != null && node.currentTrain.number == leg.train.number)
-                        ? node.currentTrain
-                        : leg.train;
+    // -------------------- Shortest Route --------------------
+    public static PathResult findShortestRoute(List<ApiHandler.Route> allRoutes, String fromCode, String toCode) {
+        return findShortestRoute(fromCode, toCode);
+    }
 
-                queue.add(new QueueNode(leg.to.station.code, newPath, node.totalMinutes + leg.minutes, nextTrain));
-            }
-        }
+    public static PathResult findShortestRoute(String fromCode, String toCode) {
+        return routeCache.route(snapshot(), fromCode, toCode).route;
+    }
 
-        return result;
+    /** Stops when the budget runs out or is cancelled; check {@link PathResult#partial}. */
+    public static PathResult findShortestRoute(String fromCode, String toCode, SearchBudget budget) {
+        return routeCache.route(snapshot(), fromCode, toCode, null, budget).route;
     }
 
     // -------------------- PathResult --------------------
+    // with the csa engine totalMinutes runs from the first departure to the final arrival, waits included
     public static class PathResult {
         public long totalMinutes = 0;
         public List<Leg> bestPath = new ArrayList<>();
+        public int expandedNodes = 0; // stations settled (or connections scanned, csa) by the search
+        public boolean partial = false; // the search ran out of budget: bestPath is the best so far, maybe none
+    }
+
+    static RouteEngine newEngine(Timetable tt) {
+        return switch (ENGINE_NAME) {
+            case "bfs" -> new BfsEngine(tt);
+            case "astar" -> new AStarEngine(tt, true);
+            case "dijkstra" -> new AStarEngine(tt, false);
+            case "patterns" -> new PatternEngine(tt, TransferPatterns.forTimetable(tt));
+            default -> new ConnectionScan(tt);
+        };
     }
 }
@@ -0,0 +1,283 @@
+package app;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import app.ApiHandler.StationInfo;
+
+/**
+ * Everything a route query reads, frozen together: station map, station
+ * index, timetable and the engine built over it. A data refresh builds a new
+ * snapshot and {@link RouteFinder} swaps it in atomically, so a query that
+ * took a reference keeps a consistent view for its whole run without locks.
+ */
+public final class RoutingSnapshot {
+
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    static final RoutingSnapshot EMPTY = new RoutingSnapshot(Map.of(), null);
+
+    private final long version;
+    private final Map<String, StationInfo> stations;
+    private final StationIndex index;
+    private final Timetable timetable;
+    private final RouteEngine engine;
+    private final ParetoRaptor pareto;
+    private final ProfileScan profiles;
+    private final NearbyStations nearby;
+    private final AccessRouter access;
+    private final FareEngine fares;
+    private volatile ServiceCalendar calendar; // built on the first dated query; most workers never need it
+
+    RoutingSnapshot(Map<String, StationInfo> stations, Timetable timetable) {
+        this(Collections.unmodifiableMap(new HashMap<>(stations)), null, timetable);
+    }
+
+    private RoutingSnapshot(Map<String, StationInfo> stations, StationIndex index, Timetable timetable) {
+        this.version = VERSIONS.incrementAndGet();
+        this.stations = stations;
+        long start = System.nanoTime();
+        this.index = index != null ? index : new StationIndex(stations.values());
+        if (index == null) Metrics.phase("stationIndex", start);
+        this.timetable = timetable;
+        start = System.nanoTime();
+        this.engine = timetable == null ? null : RouteFinder.newEngine(timetable);
+        this.fares = timetable == null ? null : new FareEngine(timetable);
+        this.pareto = timetable == null ? null : new ParetoRaptor(timetable, fares);
+        this.profiles = timetable == null ? null : new ProfileScan(timetable, fares);
+        this.nearby = timetable == null ? null : new NearbyStations(timetable);
+        this.access = timetable == null ? null : new AccessRouter(timetable, nearby);
+        if (timetable != null) Metrics.phase("engineBuild", start);
+    }
+
+    /** New station map and index over the same timetable, keeping everything already built on it. */
+    private RoutingSnapshot(RoutingSnapshot engines, Map<String, StationInfo> stations) {
+        this.version = VERSIONS.incrementAndGet();
+        this.stations = stations;
+        long start = System.nanoTime();
+        this.index = new StationIndex(stations.values());
+        Metrics.phase("stationIndex", start);
+        this.timetable = engines.timetable;
+        this.engine = engines.engine;
+        this.fares = engines.fares;
+        this.pareto = engines.pareto;
+        this.profiles = engines.profiles;
+        this.nearby = engines.nearby;
+        this.access = engines.access;
+        this.calendar = engines.calendar;
+    }
+
+    private RoutingSnapshot(RoutingSnapshot previous, Timetable retimed) {
+        this.version = VERSIONS.incrementAndGet();
+        this.stations = previous.stations;
+        this.index = previous.index;
+        this.timetable = retimed;
+        long start = System.nanoTime();
+        this.engine = previous.engine.retimed(retimed);
+        this.fares = previous.fares.retimed(retimed);
+        this.pareto = new ParetoRaptor(retimed, fares);
+        this.profiles = new ProfileScan(retimed, fares);
+        this.nearby = previous.nearby;
+        this.access = new AccessRouter(retimed, nearby);
+        this.calendar = previous.calendar; // built from the timetabled times, which a re-timing leaves alone
+        Metrics.phase("engineRetime", start);
+    }
+
+    /** Station map taken from the timetable's own station table. */
+    static RoutingSnapshot of(Timetable tt) {
+        return new RoutingSnapshot(stationMap(tt), tt);
+    }
+
+    /** Station map and index from the timetable, but no timetable or engine yet; see {@link #withTimetable}. */
+    static RoutingSnapshot stationsOf(Timetable tt) {
+        return new RoutingSnapshot(stationMap(tt), null);
+    }
+
+    private static Map<String, StationInfo> stationMap(Timetable tt) {
+        Map<String, StationInfo> stations = new HashMap<>(tt.stationCount() * 2);
+        for (int s = 0; s < tt.stationCount(); s++) stations.put(tt.codes[s], tt.stations[s]);
+        return stations;
+    }
+
+    /** New station map, same timetable and engines; nothing timetable-bound is rebuilt. */
+    RoutingSnapshot withStations(Map<String, StationInfo> newStations) {
+        return new RoutingSnapshot(this, Collections.unmodifiableMap(new HashMap<>(newStations)));
+    }
+
+    /** Same stations and index, new timetable with everything built on it from scratch. */
+    RoutingSnapshot withTimetable(Timetable newTimetable) {
+        return new RoutingSnapshot(stations, index, newTimetable);
+    }
+
+    /**
+     * Same stations and index over a re-timed copy of the timetable (only
+     * times moved, as a live patch does). What depends on the stations and
+     * stops alone is carried over, and so is the calendar.
+     */
+    RoutingSnapshot retimed(Timetable retimed) {
+        return new RoutingSnapshot(this, retimed);
+    }
+
+    // -------------------- Accessors --------------------
+    /** Increases with every snapshot built in this process. */
+    public long version() {
+        return version;
+    }
+
+    public Map<String, StationInfo> stations() {
+        return stations;
+    }
+
+    public StationIndex index() {
+        return index;
+    }
+
+    public Timetable timetable() {
+        return timetable;
+    }
+
+    public boolean isRoutable() {
+        return engine != null;
+    }
+
+    /** Spatial index over the timetable's stations; null until the timetable is built. */
+    public NearbyStations nearby() {
+        return nearby;
+    }
+
+    /** Precomputed distances and batch fares over the timetable's stations; null until it is built. */
+    public FareEngine fares() {
+        return fares;
+    }
+
+    /** Service patterns behind the timetable, for dates past the download; built on first use, null without a timetable. */
+    public ServiceCalendar calendar() {
+        ServiceCalendar c = calendar;
+        if (c == null && timetable != null) {
+            synchronized (this) {
+                if ((c = calendar) == null) calendar = c = new ServiceCalendar(timetable);
+            }
+        }
+        return c;
+    }
+
+    /** Centre of a city's stations as {lat, lon}, or null when no station serves it. */
+    public double[] cityCentre(String state, String city) {
+        double lat = 0, lon = 0;
+        int n = 0;
+        for (String code : index.codesFor(state, city)) {
+            StationInfo info = stations.get(code);
+            if (info == null || (info.lat == 0 && info.lon == 0)) continue;
+            lat += info.lat;
+            lon += info.lon;
+            n++;
+        }
+        return n == 0 ? null : new double[]{lat / n, lon / n};
+    }
+
+    // -------------------- Queries --------------------
+    public RouteFinder.PathResult findRoute(String fromCode, String toCode) {
+        return findRoute(fromCode, toCode, SearchBudget.UNLIMITED);
+    }
+
+    /** Best route found before the budget ran out; {@code partial} is set if it was cut short. */
+    public RouteFinder.PathResult findRoute(String fromCode, String toCode, SearchBudget budget) {
+        if (engine == null)
+            throw new IllegalStateException("Leg graph not built.");
+        long start = System.nanoTime();
+        RouteFinder.PathResult result = engine.findRoute(fromCode, toCode, budget);
+        Metrics.query(fromCode, toCode, result, start);
+        return result;
+    }
+
+    /**
+     * Earliest arrival leaving at or after an epoch minute, planned from the
+     * service calendar, so it works for any day the calendar covers and not
+     * just the trains in the current download.
+     */
+    ConnectionScan.Reach findRouteAt(String fromCode, String toCode, int departAfter, SearchBudget budget) {
+        ServiceCalendar calendar = calendar();
+        if (calendar == null)
+            throw new IllegalStateException("Leg graph not built.");
+        LocalDate date = LocalDate.ofEpochDay(ServiceCalendar.dayOf(departAfter));
+        if (!calendar.covers(date))
+            throw new IllegalArgumentException("No timetable for " + date + ", trains are planned from "
+                    + calendar.firstDay() + " to " + calendar.lastDay() + ".");
+        long start = System.nanoTime();
+        Timetable day = calendar.expand(date);
+        int from = day.stationId(fromCode), to = day.stationId(toCode);
+        ConnectionScan.Reach reach = from == -1 || to == -1 || from == to ? new ConnectionScan.Reach()
+                : new ConnectionScan(day).findRoute(new int[]{from}, new int[]{0}, new int[]{to}, new int[]{0}, departAfter, budget);
+        Metrics.query(fromCode, toCode, reach.path, start);
+        return reach;
+    }
+
+    /** Fastest, fewest-transfer and cheapest options together: the full Pareto set. */
+    public List<ParetoRaptor.Journey> findJourneys(String fromCode, String toCode) {
+        return findJourneys(fromCode, toCode, SearchBudget.UNLIMITED);
+    }
+
+    public List<ParetoRaptor.Journey> findJourneys(String fromCode, String toCode, SearchBudget budget) {
+        if (pareto == null)
+            throw new IllegalStateException("Leg graph not built.");
+        return pareto.findJourneys(fromCode, toCode, budget);
+    }
+
+    /** Every non-dominated (departure, arrival) journey leaving within the window of epoch minutes. */
+    public List<ParetoRaptor.Journey> findProfile(String fromCode, String toCode, int windowStart, int windowEnd) {
+        return findProfile(fromCode, toCode, windowStart, windowEnd, SearchBudget.UNLIMITED);
+    }
+
+    public List<ParetoRaptor.Journey> findProfile(String fromCode, String toCode, int windowStart, int windowEnd,
+                                                  SearchBudget budget) {
+        if (profiles == null)
+            throw new IllegalStateException("Leg graph not built.");
+        return profiles.findProfile(fromCode, toCode, windowStart, windowEnd, budget);
+    }
+
+    /**
+     * Door to door between two coordinates: several stations near each end
+     * are tried in one search, with walk or drive time to and from them.
+     * departAfter is an epoch minute, or Timetable.NO_TIME to leave whenever
+     * suits the first train.
+     */
+    public AccessRouter.Trip findTrip(double fromLat, double fromLon, double toLat, double toLon,
+                                      int departAfter, SearchBudget budget) {
+        if (access == null)
+            throw new IllegalStateException("Leg graph not built.");
+        long start = System.nanoTime();
+        AccessRouter.Trip trip = access.route(fromLat, fromLon, toLat, toLon, departAfter, budget);
+        Metrics.query(fromLat + "," + fromLon, toLat + "," + toLon, trip.path, start);
+        return trip;
+    }
+
+    /** Travel minutes from every station in one list to every station in the other. */
+    public TravelMatrix matrix(List<String> fromCodes, List<String> toCodes) {
+        return matrix(fromCodes, toCodes, null);
+    }
+
+    /** Same, with the fare for the class in every cell as well when classType is not null. */
+    public TravelMatrix matrix(List<String> fromCodes, List<String> toCodes, String classType) {
+        return matrix(fromCodes, toCodes, classType, SearchBudget.UNLIMITED);
+    }
+
+    /** Same, stopping when the budget runs out; the rows not finished by then are left UNREACHABLE. */
+    public TravelMatrix matrix(List<String> fromCodes, List<String> toCodes, String classType, SearchBudget budget) {
+        if (timetable == null)
+            throw new IllegalStateException("Leg graph not built.");
+        return TravelMatrix.compute(timetable, fromCodes, toCodes, classType == null ? null : fares, classType, budget);
+    }
+
+    public double lowestPrice(String fromCode, String toCode, String classType) {
+        if (fares != null) {
+            int from = timetable.stationId(fromCode), to = timetable.stationId(toCode);
+            if (from != -1 && to != -1) return fares.price(from, to, classType);
+        }
+        StationInfo from = stations.get(fromCode);
+        StationInfo to = stations.get(toCode);
+        if (from == null || to == null)
+            throw new IllegalArgumentException("Station code not found.");
+        return RouteFinder.priceForDistance(
+                RouteFinder.haversineDistance(from.lat, from.lon, to.lat, to.lon), classType);
+    }
+}
@@ -0,0 +1,48 @@
+package app;
+
+/**
+ * Deadline and cancellation token for one search. Engines poll
+ * {@link #exhausted()} every few hundred steps and, once it turns true, stop
+ * and return the best answer found so far marked {@code partial}. Interrupting
+ * the searching thread counts as cancelling it; {@link #cancel()} may be
+ * called from any thread.
+ */
+public final class SearchBudget {
+
+    /** No deadline; only an interrupt stops it. Shared, so {@link #cancel()} is ignored. */
+    public static final SearchBudget UNLIMITED = new SearchBudget(false, 0);
+
+    private final boolean timed;
+    private final long deadline; // System.nanoTime() to stop at, when timed
+    private volatile boolean cancelled;
+
+    private SearchBudget(boolean timed, long deadline) {
+        this.timed = timed;
+        this.deadline = deadline;
+    }
+
+    /** Runs out the given number of milliseconds from now, or when cancelled. */
+    public static SearchBudget within(long millis) {
+        return new SearchBudget(true, System.nanoTime() + Math.min(millis, Long.MAX_VALUE / 2_000_000) * 1_000_000);
+    }
+
+    /** No deadline, but can be cancelled. */
+    public static SearchBudget cancellable() {
+        return new SearchBudget(false, 0);
+    }
+
+    public void cancel() {
+        if (this != UNLIMITED) cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /** True once the search should give up: cancelled, interrupted or past its deadline. */
+    public boolean exhausted() {
+        return cancelled
+                || Thread.currentThread().isInterrupted()
+                || (timed && System.nanoTime() - deadline >= 0);
+    }
+}
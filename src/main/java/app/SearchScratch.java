@@ -0,0 +1,157 @@
+package app;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Working memory for one graph search, reused across queries so the search
+ * itself allocates nothing: station- and train-indexed int arrays, a
+ * primitive min-heap and a queue.
+ *
+ * Nothing is cleared between queries. Each query bumps a generation number,
+ * and a slot counts as written only while its stamp equals the current
+ * generation, so "reset" is one increment however big the network is.
+ *
+ * Instances sit in a small lock-free pool rather than a ThreadLocal, so the
+ * planner's virtual threads (one per request) share a bounded set of them;
+ * a query holds one from {@link #acquire} until {@link #release}.
+ */
+final class SearchScratch {
+
+    private static final AtomicReferenceArray<SearchScratch> POOL =
+            new AtomicReferenceArray<>(Runtime.getRuntime().availableProcessors() * 2);
+
+    private int generation;
+
+    // -------------------- Station-indexed --------------------
+    private int[] stationStamp = new int[0];
+    private int[] settledStamp = new int[0];
+    int[] arrival = new int[0];
+    int[] bound = new int[0];
+    int[] boardStop = new int[0];
+    int[] boardEdge = new int[0];
+    int[] alightEdge = new int[0];
+    int[] queue = new int[0];
+
+    // -------------------- Train-indexed --------------------
+    private int[] tripStamp = new int[0];
+    int[] tripEdge = new int[0];
+
+    final LongHeap heap = new LongHeap();
+
+    private SearchScratch() {
+    }
+
+    /** A scratch sized for the timetable, with every slot reading as unwritten. */
+    static SearchScratch acquire(Timetable tt) {
+        SearchScratch s = null;
+        for (int i = 0; i < POOL.length() && s == null; i++) s = POOL.getAndSet(i, null);
+        if (s == null) s = new SearchScratch();
+        s.reset(tt.stationCount(), tt.trains.length);
+        return s;
+    }
+
+    /** Hands the scratch back; dropped if the pool is already full. */
+    static void release(SearchScratch s) {
+        for (int i = 0; i < POOL.length(); i++)
+            if (POOL.compareAndSet(i, null, s)) return;
+    }
+
+    private void reset(int stations, int trains) {
+        if (stationStamp.length < stations) {
+            stationStamp = new int[stations];
+            settledStamp = new int[stations];
+            arrival = new int[stations];
+            bound = new int[stations];
+            boardStop = new int[stations];
+            boardEdge = new int[stations];
+            alightEdge = new int[stations];
+            queue = new int[stations];
+        }
+        if (tripStamp.length < trains) {
+            tripStamp = new int[trains];
+            tripEdge = new int[trains];
+        }
+        restart();
+    }
+
+    /** Every slot reads as unwritten again, for a second pass within the same query. */
+    void restart() {
+        if (++generation == 0) {
+            // wrapped after 2^32 queries: stale stamps could match again
+            Arrays.fill(stationStamp, 0);
+            Arrays.fill(settledStamp, 0);
+            Arrays.fill(tripStamp, 0);
+            generation = 1;
+        }
+        heap.clear();
+    }
+
+    // -------------------- Stamps --------------------
+    boolean seen(int station) {
+        return stationStamp[station] == generation;
+    }
+
+    void see(int station) {
+        stationStamp[station] = generation;
+    }
+
+    boolean settled(int station) {
+        return settledStamp[station] == generation;
+    }
+
+    void settle(int station) {
+        settledStamp[station] = generation;
+    }
+
+    boolean tripSeen(int trip) {
+        return tripStamp[trip] == generation;
+    }
+
+    void seeTrip(int trip) {
+        tripStamp[trip] = generation;
+    }
+
+    // -------------------- Heap --------------------
+    /** Binary min-heap of longs; searches pack (priority << 32) | node into each entry. */
+    static final class LongHeap {
+        private long[] items = new long[64];
+        private int size;
+
+        void clear() {
+            size = 0;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void push(long item) {
+            if (size == items.length) items = Arrays.copyOf(items, size * 2);
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (items[parent] <= item) break;
+                items[i] = items[parent];
+                i = parent;
+            }
+            items[i] = item;
+        }
+
+        long poll() {
+            long top = items[0];
+            long last = items[--size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && items[child + 1] < items[child]) child++;
+                if (items[child] >= last) break;
+                items[i] = items[child];
+                i = child;
+            }
+            items[i] = last;
+            return top;
+        }
+    }
+}
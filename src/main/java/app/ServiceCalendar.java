@@ -0,0 +1,366 @@
+package app;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.*;
+
+/**
+ * Service-pattern form of a timetable, for planning on days the download
+ * doesn't cover.
+ *
+ * A downloaded train is one running instance with absolute times. Instances
+ * that make the same calls at the same times of day share a pattern: its hops
+ * are stored once as local wall-clock minutes from midnight of the day it
+ * starts, with a calendar of the days it runs, one bit per day. Each day is
+ * turned back into absolute times through the zone, so a train keeps its
+ * clock times across a daylight saving change. Patterns that run on the
+ * same days share a calendar, so memory grows with distinct patterns rather
+ * than with days times trains. {@link #expand} turns the patterns running
+ * around a date into an ordinary Timetable for the routers when it is first
+ * asked for, and keeps the last few.
+ *
+ * A download shows only a day or two of service, so the rest of the calendar
+ * is inferred. The download's own days are those on which a fair share of
+ * trains start; a day with only a few long-distance trains that set out
+ * before the download doesn't count. In a download shorter than a week, a
+ * train number with a single pattern that starts on every one of those days,
+ * or on at most one of them, runs daily; anything else repeats weekly on the days
+ * it was seen. Patterns are built from timetabled times, so a late
+ * train today doesn't make tomorrow's late too.
+ */
+public final class ServiceCalendar {
+
+    static final ZoneId ZONE = ZoneId.of(System.getProperty("calendar.zone", "America/New_York"));
+    private static final ZoneRules RULES = ZONE.getRules();
+    static final int HORIZON_DAYS = Integer.getInteger("calendar.horizonDays", 28); // planned past the download
+    private static final int CACHED_DAYS = Integer.getInteger("calendar.cachedDays", 4);
+
+    private final Timetable source;   // stations and train headers are shared with it
+    private final long firstDay;      // epoch day of calendar bit 0
+    private final int days;           // calendar length in days
+    private final int maxSpanDays;    // days the longest pattern runs past its start day
+
+    // -------------------- Patterns (hops of p are patternStart[p] .. patternStart[p + 1] - 1) --------------------
+    private final int[] patternStart;
+    private final int[] hopFrom, hopTo, hopDep, hopArr; // local clock minutes from midnight of the start day
+    private final int[] patternTrain;    // train header (source.trains) of the first instance seen
+    private final int[] patternCalendar;
+    private final long[][] calendars;    // distinct sets of running days, bit d = firstDay + d
+
+    private final Map<LocalDate, Timetable> expanded = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<LocalDate, Timetable> eldest) {
+            return size() > CACHED_DAYS;
+        }
+    };
+
+    public ServiceCalendar(Timetable tt) {
+        long start = System.nanoTime();
+        this.source = tt;
+        int n = tt.connectionCount();
+        boolean[] hasPrev = new boolean[n];
+        long minDay = Long.MAX_VALUE, maxDay = Long.MIN_VALUE;
+        for (int c = 0; c < n; c++) if (tt.nextInTrip.get(c) != -1) hasPrev[tt.nextInTrip.get(c)] = true;
+        for (int c = 0; c < n; c++) {
+            if (hasPrev[c]) continue;
+            long day = dayOf(tt.schedDep.get(c));
+            minDay = Math.min(minDay, day);
+            maxDay = Math.max(maxDay, day);
+        }
+        int feedDays = n == 0 ? 0 : (int) (maxDay - minDay + 1);
+        firstDay = n == 0 ? LocalDate.now(ZONE).toEpochDay() : minDay;
+        days = feedDays + HORIZON_DAYS;
+
+        // intern one pattern per distinct (train, calls, times of day), noting the days each was seen
+        Map<PatternKey, Integer> ids = new HashMap<>();
+        List<int[]> hops = new ArrayList<>();
+        List<Integer> trains = new ArrayList<>();
+        List<BitSet> seen = new ArrayList<>();
+        Map<Integer, BitSet> numberDays = new HashMap<>();
+        Map<Integer, Set<Integer>> numberPatterns = new HashMap<>();
+        int[] starts = new int[feedDays];
+        int span = 0;
+        int[] buf = new int[64];
+        for (int c = 0; c < n; c++) {
+            if (hasPrev[c]) continue;
+            long day = dayOf(tt.schedDep.get(c));
+            long base = day * 1440;
+            int len = 0;
+            for (int k = c; k != -1; k = tt.nextInTrip.get(k)) {
+                if (len + 4 > buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+                buf[len++] = tt.depStop.get(k);
+                buf[len++] = tt.arrStop.get(k);
+                buf[len++] = (int) (localMinute(tt.schedDep.get(k)) - base);
+                buf[len++] = (int) (localMinute(tt.schedArr.get(k)) - base);
+            }
+            span = Math.max(span, Math.floorDiv(buf[len - 1], 1440));
+
+            ApiHandler.Train train = tt.trains[tt.trip.get(c)];
+            PatternKey key = new PatternKey(train.number, train.route, train.heading, Arrays.copyOf(buf, len));
+            Integer p = ids.get(key);
+            if (p == null) {
+                p = hops.size();
+                ids.put(key, p);
+                hops.add(key.hops());
+                trains.add(tt.trip.get(c));
+                seen.add(new BitSet());
+            }
+            int bit = (int) (day - firstDay);
+            starts[bit]++;
+            seen.get(p).set(bit);
+            numberDays.computeIfAbsent(train.number, k -> new BitSet()).set(bit);
+            numberPatterns.computeIfAbsent(train.number, k -> new HashSet<>()).add(p);
+        }
+        maxSpanDays = span;
+
+        // trains still running from before the download start only a handful of instances on its first days
+        int busiest = 0;
+        for (int count : starts) busiest = Math.max(busiest, count);
+        BitSet downloadDays = new BitSet(feedDays);
+        for (int d = 0; d < feedDays; d++) if (starts[d] * 4 >= busiest) downloadDays.set(d);
+        boolean shortDownload = downloadDays.cardinality() < 7;
+
+        int patterns = hops.size(), total = 0;
+        for (int[] h : hops) total += h.length / 4;
+        patternStart = new int[patterns + 1];
+        hopFrom = new int[total];
+        hopTo = new int[total];
+        hopDep = new int[total];
+        hopArr = new int[total];
+        patternTrain = new int[patterns];
+        patternCalendar = new int[patterns];
+        Map<BitSet, Integer> calendarIds = new HashMap<>();
+        List<long[]> calendarList = new ArrayList<>();
+        for (int p = 0, h = 0; p < patterns; p++) {
+            patternStart[p] = h;
+            int[] ph = hops.get(p);
+            for (int i = 0; i < ph.length; i += 4, h++) {
+                hopFrom[h] = ph[i];
+                hopTo[h] = ph[i + 1];
+                hopDep[h] = ph[i + 2];
+                hopArr[h] = ph[i + 3];
+            }
+            patternStart[p + 1] = h;
+            patternTrain[p] = trains.get(p);
+
+            int number = tt.trains[patternTrain[p]].number;
+            BitSet seenDays = (BitSet) numberDays.get(number).clone();
+            seenDays.and(downloadDays);
+            BitSet runs = infer(seen.get(p), shortDownload && numberPatterns.get(number).size() == 1
+                    && (seenDays.equals(downloadDays) || seenDays.cardinality() <= 1));
+            Integer id = calendarIds.get(runs);
+            if (id == null) {
+                id = calendarList.size();
+                calendarIds.put(runs, id);
+                calendarList.add(runs.toLongArray());
+            }
+            patternCalendar[p] = id;
+        }
+        calendars = calendarList.toArray(new long[0][]);
+        Metrics.phase("calendarBuild", start);
+        System.out.println("Service calendar built. Patterns: " + patterns + ", calendars: " + calendars.length
+                + ", from " + LocalDate.ofEpochDay(firstDay) + " to " + lastDay());
+    }
+
+    /** Days a pattern runs: every day if it looks daily, otherwise the days it was seen, weekly. */
+    private BitSet infer(BitSet seen, boolean daily) {
+        BitSet runs = new BitSet(days);
+        if (daily) {
+            runs.set(0, days);
+            return runs;
+        }
+        for (int d = seen.nextSetBit(0); d >= 0; d = seen.nextSetBit(d + 1))
+            for (int w = d; w < days; w += 7) runs.set(w);
+        return runs;
+    }
+
+    /** Calls and times of day of one train; instances equal in all of it are one pattern. */
+    private record PatternKey(int number, String route, String heading, int[] hops) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof PatternKey k && number == k.number && Objects.equals(route, k.route)
+                    && Objects.equals(heading, k.heading) && Arrays.equals(hops, k.hops);
+        }
+
+        @Override
+        public int hashCode() {
+            return (number * 31 + Objects.hashCode(route)) * 31 + Arrays.hashCode(hops);
+        }
+    }
+
+    // -------------------- Days --------------------
+    /** Epoch day, in the calendar's zone, of an epoch minute. */
+    static long dayOf(int epochMinute) {
+        return Math.floorDiv(localMinute(epochMinute), 1440);
+    }
+
+    /** Wall-clock minutes since 1970-01-01T00:00 in the calendar's zone, of an epoch minute. */
+    static long localMinute(int epochMinute) {
+        return epochMinute + RULES.getOffset(Instant.ofEpochSecond(epochMinute * 60L)).getTotalSeconds() / 60;
+    }
+
+    /**
+     * Epoch minute of a local wall-clock minute, never before notBefore (the
+     * train's previous time). A minute that happens twice when the clocks go
+     * back is taken the first time unless that is too early; one skipped by a
+     * spring-forward gap moves past the gap, and a later time still inside
+     * the gap's hour is held back to it.
+     */
+    static int epochMinute(long localMinute, int notBefore) {
+        ZonedDateTime t = LocalDateTime.ofEpochSecond(localMinute * 60, 0, ZoneOffset.UTC).atZone(ZONE);
+        int m = (int) (t.toEpochSecond() / 60);
+        if (m < notBefore) m = (int) (t.withLaterOffsetAtOverlap().toEpochSecond() / 60);
+        return Math.max(m, notBefore);
+    }
+
+    /** Epoch minute of local midnight starting the epoch day. */
+    static int midnight(long epochDay) {
+        return (int) (LocalDate.ofEpochDay(epochDay).atStartOfDay(ZONE).toEpochSecond() / 60);
+    }
+
+    public LocalDate firstDay() {
+        return LocalDate.ofEpochDay(firstDay);
+    }
+
+    /** Last day anything is planned for. */
+    public LocalDate lastDay() {
+        return LocalDate.ofEpochDay(firstDay + days - 1);
+    }
+
+    public boolean covers(LocalDate date) {
+        return !date.isBefore(firstDay()) && !date.isAfter(lastDay());
+    }
+
+    public int patternCount() {
+        return patternTrain.length;
+    }
+
+    public int calendarCount() {
+        return calendars.length;
+    }
+
+    /** Whether pattern p starts a run on the epoch day. */
+    private boolean runs(int p, long epochDay) {
+        long bit = epochDay - firstDay;
+        if (bit < 0 || bit >= days) return false;
+        long[] words = calendars[patternCalendar[p]];
+        int word = (int) (bit >>> 6);
+        return word < words.length && (words[word] & (1L << bit)) != 0;
+    }
+
+    // -------------------- Expansion --------------------
+    /**
+     * Timetable of every train running on the date: those starting that day
+     * and the next two, and those from earlier days still on the way. Built
+     * on first use; the last few dates asked for are kept.
+     */
+    public Timetable expand(LocalDate date) {
+        synchronized (expanded) {
+            Timetable cached = expanded.get(date);
+            if (cached != null) return cached;
+        }
+        long start = System.nanoTime();
+        long from = date.toEpochDay() - maxSpanDays, to = date.toEpochDay() + 2;
+        int hops = 0;
+        List<ApiHandler.Train> headers = new ArrayList<>();
+        for (long day = from; day <= to; day++)
+            for (int p = 0; p < patternTrain.length; p++)
+                if (runs(p, day)) hops += patternStart[p + 1] - patternStart[p];
+
+        int[] hFrom = new int[hops], hTo = new int[hops], hTrain = new int[hops], hDep = new int[hops], hArr = new int[hops];
+        int h = 0;
+        for (long day = from; day <= to; day++) {
+            // trains starting this day end within maxSpanDays + 1 local days; with no clock change
+            // before then every hop is one offset away from local time, otherwise each goes through the zone
+            long base = day * 1440;
+            int midnight = midnight(day);
+            ZoneOffsetTransition change = RULES.nextTransition(Instant.ofEpochSecond(midnight * 60L));
+            boolean steady = change == null
+                    || change.getInstant().getEpochSecond() / 60 > midnight + (maxSpanDays + 2) * 1440L;
+            int offset = RULES.getOffset(Instant.ofEpochSecond(midnight * 60L)).getTotalSeconds() / 60;
+            for (int p = 0; p < patternTrain.length; p++) {
+                if (!runs(p, day)) continue;
+                ApiHandler.Train pattern = source.trains[patternTrain[p]];
+                ApiHandler.Train instance = new ApiHandler.Train();
+                instance.id = day * patternTrain.length + p;
+                instance.number = pattern.number;
+                instance.heading = pattern.heading;
+                instance.route = pattern.route;
+                instance.stations = List.of();
+                int last = Integer.MIN_VALUE;
+                for (int k = patternStart[p]; k < patternStart[p + 1]; k++, h++) {
+                    hFrom[h] = hopFrom[k];
+                    hTo[h] = hopTo[k];
+                    hTrain[h] = headers.size();
+                    if (steady) {
+                        hDep[h] = (int) (base + hopDep[k] - offset);
+                        hArr[h] = (int) (base + hopArr[k] - offset);
+                    } else {
+                        hDep[h] = last = epochMinute(base + hopDep[k], last);
+                        hArr[h] = last = epochMinute(base + hopArr[k], last);
+                    }
+                }
+                headers.add(instance);
+            }
+        }
+        Timetable tt = Timetable.sorted(source.codes, source.stations, headers.toArray(new ApiHandler.Train[0]),
+                source.busOnly, hops, hFrom, hTo, hTrain, hDep, hArr, hDep, hArr);
+        Metrics.phase("calendarExpand", start);
+        synchronized (expanded) {
+            expanded.put(date, tt);
+        }
+        return tt;
+    }
+
+    /** Rough retained size in bytes of the patterns and calendars, expanded days not included. */
+    public long footprintBytes() {
+        long bytes = 0;
+        for (int[] column : new int[][]{patternStart, hopFrom, hopTo, hopDep, hopArr, patternTrain, patternCalendar})
+            bytes += 16 + 4L * column.length;
+        for (long[] calendar : calendars) bytes += 16 + 8L * calendar.length;
+        return bytes;
+    }
+
+    // -------------------- Check --------------------
+    /**
+     * Usage: ServiceCalendar [routes.json] [days]; plans random station pairs
+     * leaving at 06:00 on each day from the start of the download (two weeks
+     * by default) and prints how many found a route. Exits with status 1 if
+     * a day past the download finds none while the download's days do.
+     */
+    public static void main(String[] args) throws Exception {
+        Path file = Path.of(args.length > 0 ? args[0] : Benchmarks.FIXTURE);
+        int span = args.length > 1 ? Integer.parseInt(args[1]) : 14;
+        RoutingSnapshot snap = RoutingSnapshot.of(Timetable.fromRoutes(ApiHandler.loadRoutes(file)));
+        ServiceCalendar calendar = snap.calendar();
+        String[] codes = snap.timetable().codes;
+        long downloadEnd = calendar.firstDay + calendar.days - HORIZON_DAYS;
+        int inDownload = 0, emptyAfter = 0;
+        for (long day = calendar.firstDay; day < calendar.firstDay + span; day++) {
+            Random rnd = new Random(day);
+            int found = 0;
+            for (int q = 0; q < 300; q++) {
+                String from = codes[rnd.nextInt(codes.length)], to = codes[rnd.nextInt(codes.length)];
+                if (from.equals(to)) continue;
+                if (!snap.findRouteAt(from, to, midnight(day) + 360, SearchBudget.UNLIMITED).path.bestPath.isEmpty())
+                    found++;
+            }
+            LocalDate date = LocalDate.ofEpochDay(day);
+            System.out.printf("%s %s %3d of 300%s%n", date, date.getDayOfWeek().toString().substring(0, 3), found,
+                    day < downloadEnd ? "  (download)" : "");
+            if (day < downloadEnd) inDownload += found;
+            else if (found == 0) emptyAfter++;
+        }
+        if (inDownload > 0 && emptyAfter > 0) {
+            System.out.println(emptyAfter + " day(s) past the download found no routes");
+            System.exit(1);
+        }
+    }
+}
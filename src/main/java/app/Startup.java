@@ -1,7 +1,5 @@
 package app;
 
-import java.util.List;
-
 public class Startup {
 
     public static void main(String[] args) throws Exception {
@@ -11,29 +9,13 @@ public class Startup {
         String destState = "VA";
 
         System.out.println("Loading Amtrak data...");
-        List<ApiHandler.Route> routes = ApiHandler.loadRoutes();
-
-        // Build stations map
-        RouteFinder.populateStationsMap(routes);
-
-        // Build leg graph
-        System.out.println("Building leg graph...");
-        RouteFinder.buildLegGraph(routes);
+        // Build stations map + timetable in one streaming pass
+        RouteFinder.loadTimetable();
 
         // Resolve station codes
-        String fromCode = RouteFinder.stationsMap.entrySet().stream()
-                .filter(e -> e.getValue().city.equalsIgnoreCase(startCity) &&
-                             e.getValue().state.equalsIgnoreCase(startState))
-                .map(e -> e.getKey())
-                .findFirst()
-                .orElse(null);
-
-        String toCode = RouteFinder.stationsMap.entrySet().stream()
-                .filter(e -> e.getValue().city.equalsIgnoreCase(destCity) &&
-                             e.getValue().state.equalsIgnoreCase(destState))
-                .map(e -> e.getKey())
-                .findFirst()
-                .orElse(null);
+        RoutingSnapshot snap = RouteFinder.snapshot();
+        String fromCode = snap.index().firstCode(startState, startCity);
+        String toCode = snap.index().firstCode(destState, destCity);
 
         if (fromCode == null || toCode == null) {
             System.out.println("Invalid station codes, aborting.");
@@ -41,7 +23,7 @@ public class Startup {
         }
 
         System.out.println("Finding shortest route...");
-        RouteFinder.PathResult result = RouteFinder.findShortestRoute(routes, fromCode, toCode);
+        RouteFinder.PathResult result = snap.findRoute(fromCode, toCode);
 
         if (result.bestPath.isEmpty()) {
             System.out.println("No route found.");
@@ -68,7 +50,13 @@ public class Startup {
         }
 
         System.out.println("EST: " + h + " hours" + (m > 0 ? " " + m + " mins" : ""));
-        double price = RouteFinder.calculateLowestPrice(fromCode, toCode, "economy");
+        double price = snap.lowestPrice(fromCode, toCode, "economy");
         System.out.println("Lowest possible price: $" + String.format("%.2f", price));
+
+        System.out.println("All options (time / transfers / fare):");
+        for (ParetoRaptor.Journey j : snap.findJourneys(fromCode, toCode)) {
+            System.out.println("\t" + j.path.totalMinutes / 60 + "h " + j.path.totalMinutes % 60 + "m, "
+                    + j.transfers + " transfers, $" + String.format("%.2f", j.fare("economy")));
+        }
     }
 }
@@ -0,0 +1,189 @@
+package app;
+
+import java.util.*;
+import app.ApiHandler.StationInfo;
+
+/**
+ * Lookup tables over the station list, built once per data load: station
+ * codes by (state, city), sorted cities per state, and a sorted "city, state"
+ * list for prefix and typo-tolerant autocomplete. All matching is case
+ * insensitive.
+ */
+public class StationIndex {
+
+    private final Map<String, List<String>> codesByPlace = new HashMap<>();
+    private final Map<String, List<String>> citiesByState = new HashMap<>();
+    private final List<String> states;
+    private final List<String> cities;
+
+    // autocomplete: folded "city, state" keys in sorted order, parallel display labels
+    private final String[] placeKeys;
+    private final String[] placeLabels;
+    // typo lookups: distinct folded city names in a BK-tree, each with its place indexes
+    private final String[] cityKeys;
+    private final int[][] cityPlaces;
+    private final BkNode fuzzyRoot;
+
+    public StationIndex(Collection<StationInfo> stations) {
+        Map<String, String> stateNames = new TreeMap<>();
+        Map<String, SortedSet<String>> stateCities = new HashMap<>();
+        SortedSet<String> allCities = new TreeSet<>();
+        TreeMap<String, String> places = new TreeMap<>();
+
+        for (StationInfo st : stations) {
+            if (st.code == null || st.city == null || st.state == null) continue;
+            codesByPlace.computeIfAbsent(key(st.state, st.city), k -> new ArrayList<>()).add(st.code);
+            stateNames.putIfAbsent(fold(st.state), st.state);
+            stateCities.computeIfAbsent(fold(st.state), k -> new TreeSet<>()).add(st.city);
+            allCities.add(st.city);
+            places.putIfAbsent(fold(st.city) + ", " + fold(st.state), st.city + ", " + st.state);
+        }
+
+        for (List<String> codes : codesByPlace.values()) Collections.sort(codes);
+        codesByPlace.replaceAll((k, v) -> List.copyOf(v));
+        stateCities.forEach((k, v) -> citiesByState.put(k, List.copyOf(v)));
+        states = List.copyOf(stateNames.values());
+        cities = List.copyOf(allCities);
+
+        placeKeys = places.keySet().toArray(new String[0]);
+        placeLabels = places.values().toArray(new String[0]);
+
+        Map<String, List<Integer>> byCity = new TreeMap<>();
+        for (int i = 0; i < placeKeys.length; i++)
+            byCity.computeIfAbsent(placeKeys[i].substring(0, placeKeys[i].lastIndexOf(", ")), k -> new ArrayList<>()).add(i);
+        cityKeys = byCity.keySet().toArray(new String[0]);
+        cityPlaces = new int[cityKeys.length][];
+        BkNode root = null;
+        for (int c = 0; c < cityKeys.length; c++) {
+            cityPlaces[c] = byCity.get(cityKeys[c]).stream().mapToInt(Integer::intValue).toArray();
+            if (root == null) root = new BkNode(c);
+            else root.add(c, cityKeys);
+        }
+        fuzzyRoot = root;
+    }
+
+    private static String fold(String s) {
+        return s.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static String key(String state, String city) {
+        return fold(state) + "|" + fold(city);
+    }
+
+    // -------------------- Lookups --------------------
+    /** Every station code serving a city, sorted; empty if none. */
+    public List<String> codesFor(String state, String city) {
+        if (state == null || city == null) return List.of();
+        return codesByPlace.getOrDefault(key(state, city), List.of());
+    }
+
+    /** The first station code serving a city, or null. */
+    public String firstCode(String state, String city) {
+        List<String> codes = codesFor(state, city);
+        return codes.isEmpty() ? null : codes.get(0);
+    }
+
+    public List<String> states() {
+        return states;
+    }
+
+    public List<String> cities() {
+        return cities;
+    }
+
+    /** Sorted cities with a station in the given state. */
+    public List<String> citiesIn(String state) {
+        if (state == null) return List.of();
+        return citiesByState.getOrDefault(fold(state), List.of());
+    }
+
+    /** Every station code in the given state, grouped by city. */
+    public List<String> codesIn(String state) {
+        List<String> out = new ArrayList<>();
+        for (String city : citiesIn(state)) out.addAll(codesFor(state, city));
+        return out;
+    }
+
+    // -------------------- Autocomplete --------------------
+    /**
+     * Up to {@code limit} "City, ST" labels for a partial query: prefix matches
+     * first (binary search over the sorted keys), then cities whose name is
+     * within one typo of the query's city part, or two for names of six
+     * characters and more.
+     */
+    public List<String> search(String query, int limit) {
+        List<String> out = new ArrayList<>();
+        if (query == null || query.isBlank() || limit <= 0) return out;
+        String q = fold(query);
+
+        int i = Arrays.binarySearch(placeKeys, q);
+        if (i < 0) i = -i - 1;
+        for (; i < placeKeys.length && out.size() < limit && placeKeys[i].startsWith(q); i++)
+            out.add(placeLabels[i]);
+
+        if (out.size() < limit && fuzzyRoot != null) {
+            int comma = q.indexOf(',');
+            String city = comma >= 0 ? q.substring(0, comma).trim() : q;
+            int maxEdits = city.length() >= 6 ? 2 : 1;
+            List<int[]> near = new ArrayList<>();
+            fuzzyRoot.collect(city, maxEdits, cityKeys, near);
+            near.sort(Comparator.<int[]>comparingInt(m -> m[1]).thenComparingInt(m -> m[0]));
+            for (int[] m : near) {
+                for (int place : cityPlaces[m[0]]) {
+                    if (out.size() >= limit) return out;
+                    if (!out.contains(placeLabels[place])) out.add(placeLabels[place]);
+                }
+            }
+        }
+        return out;
+    }
+
+    private static int editDistance(String a, String b) {
+        int[] prev = new int[b.length() + 1];
+        int[] cur = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) prev[j] = j;
+        for (int i = 1; i <= a.length(); i++) {
+            cur[0] = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int sub = prev[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                cur[j] = Math.min(sub, Math.min(prev[j] + 1, cur[j - 1] + 1));
+            }
+            int[] t = prev;
+            prev = cur;
+            cur = t;
+        }
+        return prev[b.length()];
+    }
+
+    // -------------------- BK-tree --------------------
+    /** Burkhard-Keller tree, so typo lookups only visit branches within reach of the query. */
+    private static class BkNode {
+        final int item;
+        final Map<Integer, BkNode> children = new HashMap<>();
+
+        BkNode(int item) {
+            this.item = item;
+        }
+
+        void add(int other, String[] keys) {
+            BkNode node = this;
+            while (true) {
+                int d = editDistance(keys[node.item], keys[other]);
+                BkNode child = node.children.get(d);
+                if (child == null) {
+                    node.children.put(d, new BkNode(other));
+                    return;
+                }
+                node = child;
+            }
+        }
+
+        void collect(String q, int maxEdits, String[] keys, List<int[]> out) {
+            int d = editDistance(q, keys[item]);
+            if (d <= maxEdits) out.add(new int[]{item, d});
+            for (Map.Entry<Integer, BkNode> e : children.entrySet()) {
+                if (Math.abs(e.getKey() - d) <= maxEdits) e.getValue().collect(q, maxEdits, keys, out);
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package app;
+
+import com.google.gson.GsonBuilder;
+
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+
+/**
+ * Deterministic fake Amtrak network in the routes.json shape, for benchmarks
+ * and load tests. Lines are random station sequences over a fixed station
+ * pool; {@code scale} multiplies the number of trains per line, so 10 and 100
+ * give the same stations with 10x and 100x the timetable. Two "island"
+ * stations served only by each other guarantee some queries have no route.
+ */
+public class SyntheticNetwork {
+
+    static final String[] STATES = {"DC", "VA", "MD", "NY", "PA", "NJ", "MA", "CT", "IL", "CA",
+            "OR", "WA", "TX", "FL", "GA", "NC", "SC", "OH", "MI", "CO"};
+    static final String ISLAND_A = "ISA", ISLAND_B = "ISB";
+
+    public static List<ApiHandler.Route> generate(int stationCount, int lineCount, int trainsPerLine, int scale, long seed) {
+        Random rnd = new Random(seed);
+        List<ApiHandler.StationInfo> stations = new ArrayList<>();
+        for (int i = 0; i < stationCount; i++) {
+            stations.add(station(String.format("S%03d", i), "City" + i, STATES[i % STATES.length],
+                    25 + rnd.nextDouble() * 23, -122 + rnd.nextDouble() * 50));
+        }
+
+        OffsetDateTime start = OffsetDateTime.of(2026, 1, 5, 0, 0, 0, 0, ZoneOffset.ofHours(-5));
+        List<ApiHandler.Route> routes = new ArrayList<>();
+        int trainId = 0;
+        for (int l = 0; l < lineCount; l++) {
+            List<ApiHandler.StationInfo> line = new ArrayList<>(stations);
+            Collections.shuffle(line, rnd);
+            line = line.subList(0, Math.min(stationCount, 8 + rnd.nextInt(38)));
+
+            ApiHandler.Route route = new ApiHandler.Route();
+            route.route = "Line " + l;
+            route.trains = new ArrayList<>();
+            for (int k = 0; k < trainsPerLine * scale; k++) {
+                List<ApiHandler.StationInfo> stops = new ArrayList<>(line);
+                if (k % 2 == 1) Collections.reverse(stops);
+                OffsetDateTime t = start.plusMinutes(rnd.nextInt(3 * 24 * 60));
+                route.trains.add(train(++trainId, 100 + l * 20 + k, route.route, stops, t, rnd));
+            }
+            routes.add(route);
+        }
+
+        ApiHandler.Route island = new ApiHandler.Route();
+        island.route = "Island";
+        island.trains = new ArrayList<>(List.of(train(++trainId, 9000, island.route,
+                List.of(station(ISLAND_A, "Island A", "HI", 21.3, -157.8), station(ISLAND_B, "Island B", "HI", 20.8, -156.3)),
+                start, rnd)));
+        routes.add(island);
+        return routes;
+    }
+
+    private static ApiHandler.StationInfo station(String code, String city, String state, double lat, double lon) {
+        ApiHandler.StationInfo s = new ApiHandler.StationInfo();
+        s.code = code;
+        s.name = city + " Station";
+        s.city = city;
+        s.state = state;
+        s.lat = lat;
+        s.lon = lon;
+        return s;
+    }
+
+    private static ApiHandler.Train train(int id, int number, String route, List<ApiHandler.StationInfo> stops,
+                                          OffsetDateTime t, Random rnd) {
+        ApiHandler.Train train = new ApiHandler.Train();
+        train.id = id;
+        train.number = number;
+        train.heading = "N";
+        train.route = route;
+        train.stations = new ArrayList<>();
+        for (int j = 0; j < stops.size(); j++) {
+            ApiHandler.Station s = new ApiHandler.Station();
+            s.code = stops.get(j).code;
+            s.station = stops.get(j);
+            s.status = "Scheduled";
+            OffsetDateTime dep = t.plusMinutes(1 + rnd.nextInt(5));
+            if (j > 0) s.arrivalScheduled = t.toString();
+            if (j < stops.size() - 1) s.departureScheduled = dep.toString();
+            train.stations.add(s);
+            t = dep.plusMinutes(15 + rnd.nextInt(76));
+        }
+        return train;
+    }
+
+    public static void write(List<ApiHandler.Route> routes, Path file) throws Exception {
+        try (Writer w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            new GsonBuilder().create().toJson(routes, w);
+        }
+    }
+
+    /** Usage: SyntheticNetwork &lt;out.json&gt; [scale] */
+    public static void main(String[] args) throws Exception {
+        int scale = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        write(generate(150, 12, 4, scale, 42), Path.of(args[0]));
+    }
+}
@@ -0,0 +1,550 @@
+package app;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.*;
+import app.ApiHandler.StationInfo;
+
+/**
+ * Compiled, immutable form of the downloaded trains used by the routers.
+ *
+ * Stations and trains are interned to int ids and only consecutive stops
+ * become hops, with times pre-parsed to epoch minutes. Every hop is stored
+ * twice: once in the connection arrays sorted by departure time (for the
+ * connection scan) and once in a CSR adjacency grouped by departure station,
+ * each station's slice also sorted by departure time (for graph searches).
+ *
+ * The int columns live outside the Java heap, as read-only little-endian
+ * views of either direct memory or a mapped {@link TimetableSnapshot}; read
+ * them with get(i). When mapped, every process on the host that maps the
+ * same file shares one copy in the page cache, and the heap holds only the
+ * station and train tables. All columns are the same buffer class whichever
+ * way they were made, so the get calls in the search loops stay monomorphic.
+ */
+public class Timetable {
+
+    static final int NO_TIME = Integer.MIN_VALUE;
+
+    // -------------------- Stations / trains --------------------
+    final String[] codes;
+    final StationInfo[] stations;
+    final ApiHandler.Train[] trains; // headers only, stations not retained
+    final boolean[] busOnly;          // every call at the station is a connecting bus, not a train
+    private final Map<String, Integer> stationIds;
+
+    // -------------------- Connections (sorted by departure) --------------------
+    final IntBuffer depStop, arrStop, depTime, arrTime, trip;
+    final IntBuffer nextInTrip; // next connection of the same train, or -1
+    final IntBuffer schedDep, schedArr; // timetabled times, before any delay; ServiceCalendar works from these
+
+    // -------------------- CSR adjacency --------------------
+    final IntBuffer offsets;     // edges of station s are offsets[s] .. offsets[s + 1] - 1
+    final IntBuffer targets;
+    final IntBuffer trainIdx;
+    final IntBuffer depEpochMin;
+    final IntBuffer arrEpochMin;
+    final IntBuffer edgeNext;    // edge of the same train's next hop, or -1
+
+    // -------------------- Per-connection miles --------------------
+    final DoubleBuffer connMiles; // great-circle miles of each connection, by connection id; see FareEngine
+
+    /** Column count and order, as {@link #columns} returns them and a snapshot stores them. */
+    static final int COLUMNS = 14;
+    static final int OFFSETS = 8; // the one column sized by stations (plus one) rather than by connections
+    private final boolean mapped;
+
+    /**
+     * Wraps connection columns already sorted by departure time and derives
+     * the train chains and CSR adjacency from them in linear time. The arrays
+     * are copied out of the heap, so callers can drop them afterwards.
+     */
+    Timetable(String[] codes, StationInfo[] stations, ApiHandler.Train[] trains, boolean[] busOnly,
+              int[] depStop, int[] arrStop, int[] depTime, int[] arrTime, int[] trip, int[] schedDep, int[] schedArr) {
+        this(codes, stations, trains, busOnly, depStop, arrStop, depTime, arrTime, trip, schedDep, schedArr,
+                FareEngine.connectionMiles(stations, depStop, arrStop));
+    }
+
+    /** Same, with the miles of each connection already known, as when re-timing a timetable. */
+    Timetable(String[] codes, StationInfo[] stations, ApiHandler.Train[] trains, boolean[] busOnly,
+              int[] depStop, int[] arrStop, int[] depTime, int[] arrTime, int[] trip, int[] schedDep, int[] schedArr,
+              double[] connMiles) {
+        this(codes, stations, trains, busOnly,
+                derive(codes.length, trains.length, depStop, arrStop, depTime, arrTime, trip, schedDep, schedArr),
+                view(connMiles), false);
+    }
+
+    /**
+     * Over int columns in {@link #columns} order and the connection miles;
+     * mapped says whether they are views of a snapshot file.
+     */
+    Timetable(String[] codes, StationInfo[] stations, ApiHandler.Train[] trains, boolean[] busOnly,
+              IntBuffer[] columns, DoubleBuffer connMiles, boolean mapped) {
+        this.codes = codes;
+        this.stations = stations;
+        this.trains = trains;
+        this.busOnly = busOnly;
+        this.mapped = mapped;
+        depStop = columns[0];
+        arrStop = columns[1];
+        depTime = columns[2];
+        arrTime = columns[3];
+        trip = columns[4];
+        nextInTrip = columns[5];
+        schedDep = columns[6];
+        schedArr = columns[7];
+        offsets = columns[8];
+        targets = columns[9];
+        trainIdx = columns[10];
+        depEpochMin = columns[11];
+        arrEpochMin = columns[12];
+        edgeNext = columns[13];
+        this.connMiles = connMiles;
+
+        stationIds = new HashMap<>(codes.length * 2);
+        for (int s = 0; s < codes.length; s++) stationIds.put(codes[s], s);
+    }
+
+    private static IntBuffer[] derive(int stationCount, int trainCount, int[] depStop, int[] arrStop,
+                                      int[] depTime, int[] arrTime, int[] trip, int[] schedDep, int[] schedArr) {
+        int n = depTime.length;
+        int[] nextInTrip = new int[n];
+        int[] lastOfTrip = new int[trainCount];
+        Arrays.fill(lastOfTrip, -1);
+        Arrays.fill(nextInTrip, -1);
+        for (int c = 0; c < n; c++) {
+            if (lastOfTrip[trip[c]] != -1) nextInTrip[lastOfTrip[trip[c]]] = c;
+            lastOfTrip[trip[c]] = c;
+        }
+
+        // CSR: bucket connections by departure station, keeping their time order
+        int[] offsets = new int[stationCount + 1];
+        for (int c = 0; c < n; c++) offsets[depStop[c] + 1]++;
+        for (int s = 0; s < stationCount; s++) offsets[s + 1] += offsets[s];
+
+        int[] targets = new int[n];
+        int[] trainIdx = new int[n];
+        int[] depEpochMin = new int[n];
+        int[] arrEpochMin = new int[n];
+        int[] edgeNext = new int[n];
+        int[] fill = Arrays.copyOf(offsets, stationCount);
+        int[] connToEdge = new int[n];
+        for (int c = 0; c < n; c++) {
+            int e = fill[depStop[c]]++;
+            connToEdge[c] = e;
+            targets[e] = arrStop[c];
+            trainIdx[e] = trip[c];
+            depEpochMin[e] = depTime[c];
+            arrEpochMin[e] = arrTime[c];
+        }
+        for (int c = 0; c < n; c++)
+            edgeNext[connToEdge[c]] = nextInTrip[c] == -1 ? -1 : connToEdge[nextInTrip[c]];
+
+        int[][] arrays = {depStop, arrStop, depTime, arrTime, trip, nextInTrip, schedDep, schedArr,
+                offsets, targets, trainIdx, depEpochMin, arrEpochMin, edgeNext};
+        IntBuffer[] columns = new IntBuffer[COLUMNS];
+        for (int i = 0; i < COLUMNS; i++) {
+            ByteBuffer bytes = ByteBuffer.allocateDirect(arrays[i].length * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            bytes.asIntBuffer().put(arrays[i]);
+            columns[i] = view(bytes);
+        }
+        return columns;
+    }
+
+    /** The read-only little-endian int view every column is; one buffer class for all of them. */
+    static IntBuffer view(ByteBuffer bytes) {
+        return bytes.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().asReadOnlyBuffer();
+    }
+
+    /** The same for the miles column. */
+    static DoubleBuffer doubleView(ByteBuffer bytes) {
+        return bytes.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().asReadOnlyBuffer();
+    }
+
+    private static DoubleBuffer view(double[] values) {
+        ByteBuffer bytes = ByteBuffer.allocateDirect(values.length * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.asDoubleBuffer().put(values);
+        return doubleView(bytes);
+    }
+
+    /** All columns, connections then CSR, in the order the second constructor takes them. */
+    IntBuffer[] columns() {
+        return new IntBuffer[]{depStop, arrStop, depTime, arrTime, trip, nextInTrip, schedDep, schedArr,
+                offsets, targets, trainIdx, depEpochMin, arrEpochMin, edgeNext};
+    }
+
+    /** A copy of one column on the heap, for building a changed timetable from this one. */
+    static int[] toArray(IntBuffer column) {
+        int[] out = new int[column.limit()];
+        column.get(0, out);
+        return out;
+    }
+
+    // -------------------- Lookup --------------------
+    public int stationCount() {
+        return codes.length;
+    }
+
+    public int connectionCount() {
+        return depTime.limit();
+    }
+
+    /** Whether the columns are views of a snapshot file, shared with other processes mapping it. */
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    /** Bytes of columns held outside the heap, in direct memory or the mapped file. */
+    public long offHeapBytes() {
+        long bytes = 8L * connMiles.limit();
+        for (IntBuffer column : columns()) bytes += 4L * column.limit();
+        return bytes;
+    }
+
+    /**
+     * Rough retained heap size in bytes: station and train objects and the
+     * code lookup map by typical per-object sizes. The columns are not on
+     * the heap; see {@link #offHeapBytes}.
+     */
+    public long footprintBytes() {
+        long bytes = 0;
+        for (StationInfo info : stations) {
+            bytes += 80; // object header, fields, slot in the array
+            for (String s : new String[]{info.code, info.name, info.city, info.state, info.address1, info.address2, info.zip})
+                if (s != null) bytes += 40 + s.length();
+        }
+        bytes += 56L * trains.length + 49L * codes.length; // train headers (strings shared), stationIds entries, bus flags
+        return bytes;
+    }
+
+    /** Position of every CSR edge within its train's run, counting from the train's first hop. */
+    int[] edgeSequence() {
+        int[] seq = new int[connectionCount()];
+        boolean[] continues = new boolean[seq.length];
+        for (int e = 0; e < seq.length; e++) if (edgeNext.get(e) != -1) continues[edgeNext.get(e)] = true;
+        for (int e = 0; e < seq.length; e++) {
+            if (continues[e]) continue;
+            int k = 0;
+            for (int h = e; h != -1; h = edgeNext.get(h)) seq[h] = k++;
+        }
+        return seq;
+    }
+
+    /** Station id for a code, or -1 if no train stops there. */
+    public int stationId(String code) {
+        Integer id = stationIds.get(code);
+        return id == null ? -1 : id;
+    }
+
+    /** Materializes a result leg for one hop; only done for the legs of a found path. */
+    RouteFinder.Leg leg(int train, int from, int to, int dep, int arr) {
+        RouteFinder.Leg leg = new RouteFinder.Leg();
+        leg.train = trains[train];
+        leg.from = stop(from);
+        leg.to = stop(to);
+        leg.minutes = arr - dep;
+        return leg;
+    }
+
+    RouteFinder.Leg connectionLeg(int c) {
+        return leg(trip.get(c), depStop.get(c), arrStop.get(c), depTime.get(c), arrTime.get(c));
+    }
+
+    RouteFinder.Leg edgeLeg(int from, int e) {
+        return leg(trainIdx.get(e), from, targets.get(e), depEpochMin.get(e), arrEpochMin.get(e));
+    }
+
+    private ApiHandler.Station stop(int s) {
+        ApiHandler.Station st = new ApiHandler.Station();
+        st.code = codes[s];
+        st.bus = busOnly[s];
+        st.station = stations[s];
+        return st;
+    }
+
+    // -------------------- Time parsing --------------------
+    /**
+     * Epoch minutes for an ISO-8601 timestamp such as 2025-12-03T07:25:00-05:00,
+     * or NO_TIME if missing or unparseable. The yyyy-MM-ddTHH:mm[:ss[.fff]]
+     * plus Z or +hh:mm layout the API emits is decoded by hand; anything else
+     * goes through ZonedDateTime.
+     */
+    static int epochMinutes(String iso) {
+        if (iso == null) return NO_TIME;
+        int fast = parseIsoMinutes(iso);
+        if (fast != NO_TIME) return fast;
+        try {
+            return (int) (java.time.ZonedDateTime.parse(iso).toEpochSecond() / 60);
+        } catch (Exception e) {
+            return NO_TIME;
+        }
+    }
+
+    private static int parseIsoMinutes(String iso) {
+        int len = iso.length();
+        if (len < 17 || iso.charAt(4) != '-' || iso.charAt(7) != '-' || iso.charAt(10) != 'T' || iso.charAt(13) != ':')
+            return NO_TIME;
+        int y = digits(iso, 0, 4), mo = digits(iso, 5, 2), d = digits(iso, 8, 2);
+        int h = digits(iso, 11, 2), mi = digits(iso, 14, 2);
+        if (y < 0 || mo < 1 || mo > 12 || d < 1 || d > 31 || h < 0 || h > 23 || mi < 0 || mi > 59) return NO_TIME;
+
+        int i = 16;
+        if (i < len && iso.charAt(i) == ':') {
+            if (digits(iso, i + 1, 2) < 0) return NO_TIME; // seconds don't change the minute
+            i += 3;
+            if (i < len && iso.charAt(i) == '.') {
+                i++;
+                while (i < len && Character.isDigit(iso.charAt(i))) i++;
+            }
+        }
+
+        int offset;
+        if (i == len - 1 && iso.charAt(i) == 'Z') {
+            offset = 0;
+        } else if (i == len - 6 && (iso.charAt(i) == '+' || iso.charAt(i) == '-') && iso.charAt(i + 3) == ':') {
+            int oh = digits(iso, i + 1, 2), om = digits(iso, i + 4, 2);
+            if (oh < 0 || om < 0) return NO_TIME;
+            offset = (iso.charAt(i) == '-' ? -1 : 1) * (oh * 60 + om);
+        } else {
+            return NO_TIME; // zone ids and other layouts take the slow path
+        }
+
+        try {
+            long day = java.time.LocalDate.of(y, mo, d).toEpochDay();
+            return (int) (day * 1440 + h * 60 + mi - offset);
+        } catch (java.time.DateTimeException e) {
+            return NO_TIME;
+        }
+    }
+
+    private static int digits(String s, int from, int count) {
+        if (from + count > s.length()) return -1;
+        int v = 0;
+        for (int i = from; i < from + count; i++) {
+            char ch = s.charAt(i);
+            if (ch < '0' || ch > '9') return -1;
+            v = v * 10 + (ch - '0');
+        }
+        return v;
+    }
+
+    // -------------------- Building --------------------
+    /**
+     * Builds from the parsed route tree. Trains are split into slices built
+     * side by side into their own builders, then merged in slice order, so
+     * ids and hop order come out exactly as a single sequential pass would.
+     */
+    public static Timetable fromRoutes(List<ApiHandler.Route> routes) {
+        List<ApiHandler.Train> all = new ArrayList<>();
+        for (ApiHandler.Route r : routes) all.addAll(r.trains);
+        int slices = slices(all.size(), 64);
+        List<Builder> parts = java.util.stream.IntStream.range(0, slices).parallel().mapToObj(i -> {
+            Builder b = new Builder();
+            int end = (int) ((long) all.size() * (i + 1) / slices);
+            for (int k = (int) ((long) all.size() * i / slices); k < end; k++) {
+                ApiHandler.Train t = all.get(k);
+                b.beginTrain(t.id, t.number, t.heading, t.route);
+                for (ApiHandler.Station s : t.stations) {
+                    if (s.station == null || s.station.code == null) continue;
+                    int arr = epochMinutes(s.arrivalScheduled), dep = epochMinutes(s.departureScheduled);
+                    b.stop(b.station(s.station),
+                            s.arrivalActual != null ? epochMinutes(s.arrivalActual) : arr,
+                            s.departureActual != null ? epochMinutes(s.departureActual) : dep, s.bus, arr, dep);
+                }
+            }
+            return b;
+        }).toList();
+
+        Builder merged = parts.get(0);
+        for (int i = 1; i < parts.size(); i++) merged.append(parts.get(i));
+        return merged.build();
+    }
+
+    /** How many slices to cut a parallel build into: a few per core, none smaller than minItems. */
+    static int slices(int items, int minItems) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(cores * 4, items / minItems));
+    }
+
+    /**
+     * Timetable from the first n hops of unsorted hop columns: sorts them by
+     * departure, the index tie-break keeping each train's hops in sequence.
+     */
+    static Timetable sorted(String[] codes, StationInfo[] stations, ApiHandler.Train[] trains, boolean[] busOnly, int n,
+                            int[] from, int[] to, int[] train, int[] dep, int[] arr, int[] schedDep, int[] schedArr) {
+        long[] order = new long[n];
+        for (int i = 0; i < n; i++) order[i] = ((long) dep[i] << 32) | i;
+        Arrays.parallelSort(order);
+
+        int[] depStop = new int[n], arrStop = new int[n], trip = new int[n];
+        int[] depTime = new int[n], arrTime = new int[n], sDep = new int[n], sArr = new int[n];
+        for (int c = 0; c < n; c++) {
+            int i = (int) order[c];
+            depStop[c] = from[i];
+            arrStop[c] = to[i];
+            depTime[c] = dep[i];
+            arrTime[c] = arr[i];
+            trip[c] = train[i];
+            sDep[c] = schedDep[i];
+            sArr[c] = schedArr[i];
+        }
+        return new Timetable(codes, stations, trains, busOnly, depStop, arrStop, depTime, arrTime, trip, sDep, sArr);
+    }
+
+    /** Accumulates stations, trains and hops, then freezes them into a Timetable. */
+    public static class Builder {
+        private final Map<String, Integer> ids = new HashMap<>();
+        final List<String> codes = new ArrayList<>();
+        private final List<StationInfo> infos = new ArrayList<>();
+        final List<ApiHandler.Train> trains = new ArrayList<>();
+
+        // hops in insertion order, so each train's hops are contiguous and in sequence
+        int hops = 0;
+        private int skipped = 0;
+        private int prevStation = -1, prevDep = NO_TIME, prevSchedDep = NO_TIME;
+        private final BitSet busCalls = new BitSet(), trainCalls = new BitSet();
+        int[] from = new int[1024], to = new int[1024], train = new int[1024];
+        int[] dep = new int[1024], arr = new int[1024];
+        int[] schedDep = new int[1024], schedArr = new int[1024];
+
+        public int station(StationInfo info) {
+            Integer id = ids.get(info.code);
+            if (id != null) return id;
+            ids.put(info.code, codes.size());
+            codes.add(info.code);
+            infos.add(info);
+            return codes.size() - 1;
+        }
+
+        public boolean hasStation(String code) {
+            return ids.containsKey(code);
+        }
+
+        /** Station id for an already known code, or -1. */
+        public int stationId(String code) {
+            Integer id = ids.get(code);
+            return id == null ? -1 : id;
+        }
+
+        /** Starts a new train; following stop() calls add its hops in order. */
+        public int beginTrain(long id, int number, String heading, String route) {
+            ApiHandler.Train header = new ApiHandler.Train();
+            header.id = id;
+            header.number = number;
+            header.heading = heading;
+            header.route = route;
+            header.stations = List.of();
+            trains.add(header);
+            prevStation = -1;
+            return trains.size() - 1;
+        }
+
+        public void stop(int station, int arrMin, int depMin) {
+            stop(station, arrMin, depMin, false);
+        }
+
+        public void stop(int station, int arrMin, int depMin, boolean bus) {
+            stop(station, arrMin, depMin, bus, NO_TIME, NO_TIME);
+        }
+
+        /**
+         * Next stop of the current train, with its live (actual or expected)
+         * and timetabled times. A missing arrival or departure falls back to
+         * the other, and missing timetabled times to the live ones.
+         */
+        public void stop(int station, int arrMin, int depMin, boolean bus, int schedArrMin, int schedDepMin) {
+            (bus ? busCalls : trainCalls).set(station);
+            if (arrMin == NO_TIME) arrMin = depMin;
+            if (depMin == NO_TIME) depMin = arrMin;
+            if (schedArrMin == NO_TIME) schedArrMin = schedDepMin;
+            if (schedDepMin == NO_TIME) schedDepMin = schedArrMin;
+            if (schedArrMin == NO_TIME) {
+                schedArrMin = arrMin;
+                schedDepMin = depMin;
+            }
+            if (prevStation != -1) hop(prevStation, station, trains.size() - 1, prevDep, arrMin, prevSchedDep, schedArrMin);
+            prevStation = station;
+            prevDep = depMin;
+            prevSchedDep = schedDepMin;
+        }
+
+        public void hop(int fromStation, int toStation, int trainId, int depMin, int arrMin) {
+            hop(fromStation, toStation, trainId, depMin, arrMin, depMin, arrMin);
+        }
+
+        /** Adds a hop; hops with a missing or backwards time are counted and dropped. */
+        public void hop(int fromStation, int toStation, int trainId, int depMin, int arrMin, int schedDepMin, int schedArrMin) {
+            if (depMin == NO_TIME || arrMin == NO_TIME || arrMin < depMin) {
+                skipped++;
+                return;
+            }
+            if (schedDepMin == NO_TIME || schedArrMin == NO_TIME || schedArrMin < schedDepMin) {
+                schedDepMin = depMin;
+                schedArrMin = arrMin;
+            }
+            if (hops == dep.length) grow(hops * 2);
+            from[hops] = fromStation;
+            to[hops] = toStation;
+            train[hops] = trainId;
+            dep[hops] = depMin;
+            arr[hops] = arrMin;
+            schedDep[hops] = schedDepMin;
+            schedArr[hops] = schedArrMin;
+            hops++;
+        }
+
+        /**
+         * Adds everything another builder collected, as if its trains had been
+         * fed to this one next: its stations are re-interned here, keeping
+         * first-seen order, and its train and station ids shifted to match.
+         */
+        void append(Builder part) {
+            int[] remap = new int[part.codes.size()];
+            for (int s = 0; s < remap.length; s++) {
+                remap[s] = station(part.infos.get(s));
+                if (part.busCalls.get(s)) busCalls.set(remap[s]);
+                if (part.trainCalls.get(s)) trainCalls.set(remap[s]);
+            }
+            int trainBase = trains.size();
+            trains.addAll(part.trains);
+            if (hops + part.hops > dep.length) grow(Math.max(hops + part.hops, hops * 2));
+            for (int i = 0; i < part.hops; i++) {
+                from[hops + i] = remap[part.from[i]];
+                to[hops + i] = remap[part.to[i]];
+                train[hops + i] = trainBase + part.train[i];
+            }
+            System.arraycopy(part.dep, 0, dep, hops, part.hops);
+            System.arraycopy(part.arr, 0, arr, hops, part.hops);
+            System.arraycopy(part.schedDep, 0, schedDep, hops, part.hops);
+            System.arraycopy(part.schedArr, 0, schedArr, hops, part.hops);
+            hops += part.hops;
+            skipped += part.skipped;
+            prevStation = -1;
+        }
+
+        private void grow(int cap) {
+            from = Arrays.copyOf(from, cap);
+            to = Arrays.copyOf(to, cap);
+            train = Arrays.copyOf(train, cap);
+            dep = Arrays.copyOf(dep, cap);
+            arr = Arrays.copyOf(arr, cap);
+            schedDep = Arrays.copyOf(schedDep, cap);
+            schedArr = Arrays.copyOf(schedArr, cap);
+        }
+
+        public Timetable build() {
+            long start = System.nanoTime();
+            boolean[] busOnly = new boolean[codes.size()];
+            for (int s = busCalls.nextSetBit(0); s >= 0; s = busCalls.nextSetBit(s + 1)) busOnly[s] = !trainCalls.get(s);
+
+            Timetable tt = sorted(codes.toArray(new String[0]), infos.toArray(new StationInfo[0]),
+                    trains.toArray(new ApiHandler.Train[0]), busOnly, hops, from, to, train, dep, arr, schedDep, schedArr);
+            System.out.println("Timetable built. Stations: " + tt.stationCount()
+                    + ", connections: " + tt.connectionCount()
+                    + (skipped > 0 ? ", skipped hops without times: " + skipped : ""));
+            Metrics.phase("graphBuild", start);
+            return tt;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package app;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+import app.ApiHandler.StationInfo;
+
+/**
+ * Versioned binary image of a compiled {@link Timetable}, written next to
+ * routes.json after a successful build so the next start can skip JSON
+ * parsing entirely.
+ *
+ * Layout (little endian): header, string pool, station table, train headers,
+ * then all fourteen int columns of the timetable and its per-connection miles
+ * as doubles, each starting on an 8-byte boundary. The header records the size, mtime and CRC32 of the routes.json
+ * it was built from; a snapshot whose stamp no longer matches the source is
+ * ignored and rewritten.
+ *
+ * Reading maps the file and hands the columns to the Timetable as views of
+ * the mapping, without copying, so the bulk of the timetable stays in the page
+ * cache and every planner process on the host reading the same file shares
+ * those pages. Only the station and train tables are decoded onto the heap.
+ * A rewrite goes to a new file moved into place, so processes still using the
+ * old mapping are unaffected.
+ */
+public class TimetableSnapshot {
+
+    static final String SNAPSHOT_FILE = "src/amtrak-api/_site/timetable.bin";
+
+    private static final int MAGIC = 0x54544231; // "TTB1"
+    private static final int VERSION = 5;
+
+    // -------------------- Source stamp --------------------
+    /** Identity of a source file: size, last-modified time and content hash. */
+    public record Stamp(long size, long mtime, long crc) {
+
+        public static Stamp of(Path source) throws IOException {
+            long size = Files.size(source);
+            long mtime = Files.getLastModifiedTime(source).toMillis();
+            CRC32 crc = new CRC32();
+            try (FileChannel ch = FileChannel.open(source, StandardOpenOption.READ)) {
+                ByteBuffer buf = ByteBuffer.allocateDirect(1 << 16);
+                while (ch.read(buf) > 0) {
+                    buf.flip();
+                    crc.update(buf);
+                    buf.clear();
+                }
+            }
+            return new Stamp(size, mtime, crc.getValue());
+        }
+    }
+
+    // -------------------- Write --------------------
+    public static void write(Timetable tt, Stamp stamp, Path snapshot) throws IOException {
+        long start = System.nanoTime();
+        List<String> pool = new ArrayList<>();
+        Map<String, Integer> poolIds = new HashMap<>();
+
+        // collect strings first so the pool can be written ahead of the tables
+        int[] stationRefs = new int[tt.stationCount() * 7];
+        for (int s = 0; s < tt.stationCount(); s++) {
+            StationInfo info = tt.stations[s];
+            String[] fields = {info.code, info.name, info.city, info.state, info.address1, info.address2, info.zip};
+            for (int f = 0; f < fields.length; f++) stationRefs[s * 7 + f] = ref(fields[f], pool, poolIds);
+        }
+        int[] trainRefs = new int[tt.trains.length * 2];
+        for (int t = 0; t < tt.trains.length; t++) {
+            trainRefs[t * 2] = ref(tt.trains[t].heading, pool, poolIds);
+            trainRefs[t * 2 + 1] = ref(tt.trains[t].route, pool, poolIds);
+        }
+
+        // a unique name, so two processes rewriting the snapshot at once never share a temp file
+        Path tmp = Files.createTempFile(snapshot.toAbsolutePath().getParent(), snapshot.getFileName().toString(), ".tmp");
+        boolean moved = false;
+        try {
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                Out out = new Out(ch);
+                out.putInt(MAGIC);
+                out.putInt(VERSION);
+                out.putLong(stamp.size());
+                out.putLong(stamp.mtime());
+                out.putLong(stamp.crc());
+                out.putInt(pool.size());
+                out.putInt(tt.stationCount());
+                out.putInt(tt.trains.length);
+                out.putInt(tt.connectionCount());
+
+                for (String str : pool) {
+                    byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+                    out.putInt(bytes.length);
+                    out.put(bytes);
+                }
+                for (int s = 0; s < tt.stationCount(); s++) {
+                    for (int f = 0; f < 7; f++) out.putInt(stationRefs[s * 7 + f]);
+                    out.putDouble(tt.stations[s].lat);
+                    out.putDouble(tt.stations[s].lon);
+                    out.put(tt.busOnly[s] ? (byte) 1 : 0);
+                }
+                for (int t = 0; t < tt.trains.length; t++) {
+                    out.putLong(tt.trains[t].id);
+                    out.putInt(tt.trains[t].number);
+                    out.putInt(trainRefs[t * 2]);
+                    out.putInt(trainRefs[t * 2 + 1]);
+                }
+                for (IntBuffer column : tt.columns()) {
+                    out.align();
+                    for (int i = 0; i < column.limit(); i++) out.putInt(column.get(i));
+                }
+                out.align();
+                for (int c = 0; c < tt.connectionCount(); c++) out.putDouble(tt.connMiles.get(c));
+                out.flush();
+            }
+            Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+        } finally {
+            if (!moved) Files.deleteIfExists(tmp);
+        }
+        Metrics.phase("snapshotWrite", start);
+    }
+
+    /** Little-endian writes through one direct buffer, tracking the file offset for alignment. */
+    private static final class Out {
+        private final FileChannel ch;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        private long written;
+
+        Out(FileChannel ch) {
+            this.ch = ch;
+        }
+
+        private ByteBuffer room(int bytes) throws IOException {
+            if (buf.remaining() < bytes) flush();
+            return buf;
+        }
+
+        void putInt(int v) throws IOException {
+            room(4).putInt(v);
+        }
+
+        void putLong(long v) throws IOException {
+            room(8).putLong(v);
+        }
+
+        void putDouble(double v) throws IOException {
+            room(8).putDouble(v);
+        }
+
+        void put(byte b) throws IOException {
+            room(1).put(b);
+        }
+
+        void put(byte[] bytes) throws IOException {
+            for (int i = 0; i < bytes.length; ) {
+                int len = Math.min(bytes.length - i, room(1).remaining());
+                buf.put(bytes, i, len);
+                i += len;
+            }
+        }
+
+        /** Pads to the next 8-byte boundary of the file. */
+        void align() throws IOException {
+            while ((written + buf.position()) % 8 != 0) put((byte) 0);
+        }
+
+        void flush() throws IOException {
+            buf.flip();
+            written += buf.remaining();
+            while (buf.hasRemaining()) ch.write(buf);
+            buf.clear();
+        }
+    }
+
+    private static int ref(String s, List<String> pool, Map<String, Integer> poolIds) {
+        if (s == null) return -1;
+        Integer id = poolIds.get(s);
+        if (id != null) return id;
+        poolIds.put(s, pool.size());
+        pool.add(s);
+        return pool.size() - 1;
+    }
+
+    // -------------------- Read --------------------
+    /**
+     * Maps a snapshot and returns a Timetable over it, or null if it is
+     * missing, corrupt or stale for the stamp. The columns stay in the mapping.
+     */
+    public static Timetable read(Path snapshot, Stamp stamp) {
+        if (!Files.isRegularFile(snapshot)) return null;
+        long start = System.nanoTime();
+        try (FileChannel ch = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) return null;
+            if (!stamp.equals(new Stamp(buf.getLong(), buf.getLong(), buf.getLong()))) return null;
+
+            int poolSize = buf.getInt(), stationCount = buf.getInt(), trainCount = buf.getInt(), n = buf.getInt();
+
+            String[] pool = new String[poolSize];
+            for (int i = 0; i < poolSize; i++) {
+                byte[] bytes = new byte[buf.getInt()];
+                buf.get(bytes);
+                pool[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            String[] codes = new String[stationCount];
+            StationInfo[] stations = new StationInfo[stationCount];
+            boolean[] busOnly = new boolean[stationCount];
+            for (int s = 0; s < stationCount; s++) {
+                StationInfo info = new StationInfo();
+                info.code = str(pool, buf.getInt());
+                info.name = str(pool, buf.getInt());
+                info.city = str(pool, buf.getInt());
+                info.state = str(pool, buf.getInt());
+                info.address1 = str(pool, buf.getInt());
+                info.address2 = str(pool, buf.getInt());
+                info.zip = str(pool, buf.getInt());
+                info.lat = buf.getDouble();
+                info.lon = buf.getDouble();
+                busOnly[s] = buf.get() != 0;
+                codes[s] = info.code;
+                stations[s] = info;
+            }
+
+            ApiHandler.Train[] trains = new ApiHandler.Train[trainCount];
+            for (int t = 0; t < trainCount; t++) {
+                ApiHandler.Train train = new ApiHandler.Train();
+                train.id = buf.getLong();
+                train.number = buf.getInt();
+                train.heading = str(pool, buf.getInt());
+                train.route = str(pool, buf.getInt());
+                train.stations = List.of();
+                trains[t] = train;
+            }
+
+            IntBuffer[] columns = new IntBuffer[Timetable.COLUMNS];
+            int at = buf.position();
+            for (int i = 0; i < columns.length; i++) {
+                int length = i == Timetable.OFFSETS ? stationCount + 1 : n;
+                at = (at + 7) & ~7;
+                columns[i] = Timetable.view(buf.slice(at, length * Integer.BYTES));
+                at += length * Integer.BYTES;
+            }
+            at = (at + 7) & ~7;
+            DoubleBuffer miles = Timetable.doubleView(buf.slice(at, n * Double.BYTES));
+            Timetable tt = new Timetable(codes, stations, trains, busOnly, columns, miles, true);
+            Metrics.phase("snapshotRead", start);
+            return tt;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Ignoring unreadable timetable snapshot: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static String str(String[] pool, int ref) {
+        return ref == -1 ? null : pool[ref];
+    }
+}
@@ -0,0 +1,309 @@
+package app;
+
+import java.io.*;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Precomputed transfer patterns: for every origin and destination, the few
+ * sequences of transfer stations that some optimal journey uses.
+ *
+ * Preprocessing runs a one-to-all connection scan from every distinct
+ * departure at every origin, fanned out over origins on a fork-join pool,
+ * and keeps each distinct chain of boarding stations behind a journey that
+ * no later departure arrives as early as. Online, a
+ * {@link PatternEngine} only has to look up direct rides along those few
+ * chains instead of searching the whole network.
+ *
+ * Patterns depend on which trains stop where, not on the minutes, so they
+ * are keyed by a structural fingerprint of the timetable and survive live
+ * delay patches; a heavily delayed day may then miss a pattern that only
+ * the delays made optimal.
+ *
+ * Per origin the patterns are stored flat: destination d owns patterns
+ * index[d] .. index[d + 1] - 1, pattern p is hops[bounds[p] .. bounds[p + 1] - 1],
+ * the stations where a train is left, ending with d itself.
+ */
+public class TransferPatterns {
+
+    static final String PATTERNS_FILE = "src/amtrak-api/_site/patterns.bin";
+
+    private static final int MAGIC = 0x54505431; // "TPT1"
+    private static final int VERSION = 2; // 1 could drop a pattern whose 64-bit hash collided with another
+    private static final int INF = Integer.MAX_VALUE;
+
+    private static volatile TransferPatterns loaded;
+
+    final long fingerprint;
+    final String[] codes;
+    final int[][] index;
+    final int[][] bounds;
+    final int[][] hops;
+
+    private TransferPatterns(long fingerprint, String[] codes, int[][] index, int[][] bounds, int[][] hops) {
+        this.fingerprint = fingerprint;
+        this.codes = codes;
+        this.index = index;
+        this.bounds = bounds;
+        this.hops = hops;
+    }
+
+    public int patternCount() {
+        int count = 0;
+        for (int[] b : bounds) count += b.length - 1;
+        return count;
+    }
+
+    /** Patterns for this timetable: kept from last time, read from disk, or computed and saved. */
+    static TransferPatterns forTimetable(Timetable tt) {
+        long fingerprint = fingerprint(tt);
+        TransferPatterns patterns = loaded;
+        if (patterns != null && patterns.matches(tt, fingerprint)) return patterns;
+
+        Path file = Path.of(PATTERNS_FILE);
+        patterns = read(file);
+        if (patterns == null || !patterns.matches(tt, fingerprint)) {
+            patterns = compute(tt);
+            try {
+                write(patterns, file);
+            } catch (IOException e) {
+                System.err.println("Could not save transfer patterns: " + e.getMessage());
+            }
+        }
+        loaded = patterns;
+        return patterns;
+    }
+
+    private boolean matches(Timetable tt, long fingerprint) {
+        return this.fingerprint == fingerprint && Arrays.equals(codes, tt.codes);
+    }
+
+    /** Order-independent hash of the stations and of which train runs each hop. */
+    static long fingerprint(Timetable tt) {
+        long h = Arrays.hashCode(tt.codes);
+        for (int c = 0; c < tt.connectionCount(); c++) {
+            long x = (tt.trains[tt.trip.get(c)].id * 31 + tt.depStop.get(c)) * 31 + tt.arrStop.get(c);
+            x *= 0x9E3779B97F4A7C15L;
+            h += x ^ (x >>> 29);
+        }
+        return h;
+    }
+
+    // -------------------- Preprocessing --------------------
+    static TransferPatterns compute(Timetable tt) {
+        long start = System.nanoTime();
+        int n = tt.stationCount();
+        int[][] index = new int[n][], bounds = new int[n][], hops = new int[n][];
+        ForkJoinPool.commonPool().invoke(new Origins(tt, 0, n, index, bounds, hops));
+        TransferPatterns patterns = new TransferPatterns(fingerprint(tt), tt.codes, index, bounds, hops);
+        Metrics.phase("transferPatterns", start);
+        System.out.printf("Transfer patterns computed. Stations: %d, patterns: %d, %d ms%n",
+                n, patterns.patternCount(), (System.nanoTime() - start) / 1_000_000);
+        return patterns;
+    }
+
+    @SuppressWarnings("serial") // fork-join task, never serialized
+    private static class Origins extends RecursiveAction {
+        private final Timetable tt;
+        private final int lo, hi;
+        private final int[][] index, bounds, hops;
+
+        Origins(Timetable tt, int lo, int hi, int[][] index, int[][] bounds, int[][] hops) {
+            this.tt = tt;
+            this.lo = lo;
+            this.hi = hi;
+            this.index = index;
+            this.bounds = bounds;
+            this.hops = hops;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > 1) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new Origins(tt, lo, mid, index, bounds, hops), new Origins(tt, mid, hi, index, bounds, hops));
+                return;
+            }
+            if (lo < hi) fromOrigin(tt, lo, index, bounds, hops);
+        }
+    }
+
+    /**
+     * One-to-all scans from each departure at the origin, latest first; the
+     * chain of boarding stations behind every arrival no later start can match
+     * becomes a pattern.
+     */
+    private static void fromOrigin(Timetable tt, int origin, int[][] index, int[][] bounds, int[][] hops) {
+        int n = tt.stationCount();
+        IntBuffer depStop = tt.depStop, arrStop = tt.arrStop, depTime = tt.depTime, arrTime = tt.arrTime, trip = tt.trip;
+        int[] earliest = new int[n];
+        int[] enterConn = new int[n];
+        int[] boardedAt = new int[tt.trains.length];
+        int[] chain = new int[RouteFinder.MAX_LEGS * 4];
+
+        Set<Chain> seen = new HashSet<>();
+        List<List<int[]>> found = new ArrayList<>(n);
+        for (int s = 0; s < n; s++) found.add(new ArrayList<>());
+
+        // latest departure first: a journey only counts if it beats every later start
+        int[] bestLater = new int[n];
+        Arrays.fill(bestLater, INF);
+        int last = Integer.MAX_VALUE;
+        for (int e = tt.offsets.get(origin + 1) - 1; e >= tt.offsets.get(origin); e--) {
+            int departure = tt.depEpochMin.get(e);
+            if (departure == last) continue;
+            last = departure;
+
+            Arrays.fill(earliest, INF);
+            Arrays.fill(boardedAt, -1);
+            earliest[origin] = departure;
+            for (int c = firstConnectionAtOrAfter(depTime, departure); c < depTime.limit(); c++) {
+                int t = trip.get(c);
+                if (boardedAt[t] == -1) {
+                    int s = depStop.get(c);
+                    int ready = earliest[s];
+                    if (ready == INF) continue;
+                    if (s != origin && (long) ready + RouteFinder.MIN_TRANSFER_MINUTES > depTime.get(c)) continue;
+                    boardedAt[t] = c;
+                }
+                int a = arrStop.get(c);
+                if (arrTime.get(c) < earliest[a]) {
+                    earliest[a] = arrTime.get(c);
+                    enterConn[a] = boardedAt[t];
+                }
+            }
+
+            for (int d = 0; d < n; d++) {
+                if (d == origin || earliest[d] >= bestLater[d]) continue;
+                bestLater[d] = earliest[d];
+                // walk back to the origin: d, then each station a train was boarded at
+                int len = 0;
+                for (int s = d; s != origin; s = depStop.get(enterConn[s])) {
+                    if (len == chain.length) chain = Arrays.copyOf(chain, len * 2);
+                    chain[len++] = s;
+                }
+                int[] pattern = new int[len];
+                for (int i = 0; i < len; i++) pattern[i] = chain[len - 1 - i];
+                if (seen.add(new Chain(pattern))) found.get(d).add(pattern);
+            }
+        }
+
+        int[] idx = new int[n + 1];
+        int total = 0, stops = 0;
+        for (int d = 0; d < n; d++) {
+            idx[d] = total;
+            total += found.get(d).size();
+            for (int[] p : found.get(d)) stops += p.length;
+        }
+        idx[n] = total;
+        int[] b = new int[total + 1];
+        int[] flat = new int[stops];
+        int p = 0, at = 0;
+        for (int d = 0; d < n; d++) {
+            for (int[] pattern : found.get(d)) {
+                b[p++] = at;
+                System.arraycopy(pattern, 0, flat, at, pattern.length);
+                at += pattern.length;
+            }
+        }
+        b[total] = at;
+        index[origin] = idx;
+        bounds[origin] = b;
+        hops[origin] = flat;
+    }
+
+    /** A pattern as a set element, equal to another with the same stations in the same order. */
+    private record Chain(int[] stops) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Chain other && Arrays.equals(stops, other.stops);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(stops);
+        }
+    }
+
+    private static int firstConnectionAtOrAfter(IntBuffer depTime, int minute) {
+        int lo = 0, hi = depTime.limit();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (depTime.get(mid) < minute) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // -------------------- Write / Read --------------------
+    public static void write(TransferPatterns patterns, Path file) throws IOException {
+        Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        boolean moved = false;
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(patterns.fingerprint);
+                out.writeInt(patterns.codes.length);
+                for (String code : patterns.codes) {
+                    byte[] bytes = code.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+                for (int o = 0; o < patterns.codes.length; o++) {
+                    for (int[] column : new int[][]{patterns.index[o], patterns.bounds[o], patterns.hops[o]}) {
+                        out.writeInt(column.length);
+                        for (int v : column) out.writeInt(v);
+                    }
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+        } finally {
+            if (!moved) Files.deleteIfExists(tmp);
+        }
+    }
+
+    /** Maps and decodes a pattern file, or returns null if it is missing or corrupt. */
+    public static TransferPatterns read(Path file) {
+        if (!Files.isRegularFile(file)) return null;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) return null;
+            long fingerprint = buf.getLong();
+            int n = buf.getInt();
+            String[] codes = new String[n];
+            for (int s = 0; s < n; s++) {
+                byte[] bytes = new byte[buf.getInt()];
+                buf.get(bytes);
+                codes[s] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            int[][][] columns = new int[3][n][];
+            for (int o = 0; o < n; o++) {
+                for (int k = 0; k < 3; k++) {
+                    int[] column = new int[buf.getInt()];
+                    buf.asIntBuffer().get(column);
+                    buf.position(buf.position() + column.length * Integer.BYTES);
+                    columns[k][o] = column;
+                }
+            }
+            return new TransferPatterns(fingerprint, codes, columns[0], columns[1], columns[2]);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Ignoring unreadable transfer patterns: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /** Offline step: build the timetable, compute its patterns and save them next to routes.json. */
+    public static void main(String[] args) throws Exception {
+        RouteFinder.loadTimetable();
+        Timetable tt = RouteFinder.snapshot().timetable();
+        write(compute(tt), Path.of(args.length > 0 ? args[0] : PATTERNS_FILE));
+    }
+}
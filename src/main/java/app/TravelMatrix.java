@@ -0,0 +1,334 @@
+package app;
+
+import java.io.*;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Door-to-door travel minutes between many stations at once.
+ *
+ * Each origin costs one connection scan that serves every target together
+ * (it stops once all targets are settled), and the origins are spread over
+ * the common fork-join pool. Cells hold the same minutes
+ * {@link RouteFinder#findShortestRoute(String, String)} reports, or
+ * {@link #UNREACHABLE}, in a flat row-major int array.
+ *
+ * A search budget is checked before each origin and every 1024 connections
+ * of its scan; once it runs out the remaining cells stay UNREACHABLE and the
+ * matrix is marked {@link #isPartial() partial}.
+ */
+public class TravelMatrix {
+
+    public static final int UNREACHABLE = -1;
+    private static final int INF = Integer.MAX_VALUE;
+
+    private final String[] fromCodes;
+    private final String[] toCodes;
+    private final int[] minutes;
+    private final double[] fares; // fare of each cell for one class, or null when none was asked for
+    private final Boolean partial; // only sent when the budget ran out before every row was scanned
+
+    private TravelMatrix(String[] fromCodes, String[] toCodes, int[] minutes, double[] fares, boolean partial) {
+        this.fromCodes = fromCodes;
+        this.toCodes = toCodes;
+        this.minutes = minutes;
+        this.fares = fares;
+        this.partial = partial ? Boolean.TRUE : null;
+    }
+
+    public int rows() {
+        return fromCodes.length;
+    }
+
+    public int columns() {
+        return toCodes.length;
+    }
+
+    public String fromCode(int row) {
+        return fromCodes[row];
+    }
+
+    public String toCode(int column) {
+        return toCodes[column];
+    }
+
+    /** Minutes from row to column station, or UNREACHABLE. */
+    public int minutes(int row, int column) {
+        return minutes[row * toCodes.length + column];
+    }
+
+    /** True when the budget ran out first; cells not reached by then are UNREACHABLE. */
+    public boolean isPartial() {
+        return partial != null;
+    }
+
+    public boolean hasFares() {
+        return fares != null;
+    }
+
+    /** Fare from row to column station for the class the matrix was computed with. */
+    public double fare(int row, int column) {
+        return fares[row * toCodes.length + column];
+    }
+
+    // -------------------- Compute --------------------
+    /** Travel minutes from one station to every station in the timetable, indexed by station id. */
+    public static int[] oneToAll(Timetable tt, String fromCode) {
+        int origin = tt.stationId(fromCode);
+        if (origin == -1)
+            throw new IllegalArgumentException("Station code not found: " + fromCode);
+        int[] all = new int[tt.stationCount()];
+        for (int s = 0; s < all.length; s++) all[s] = s;
+        int[] out = new int[all.length];
+        scan(tt, origin, all, out, 0, SearchBudget.UNLIMITED);
+        return out;
+    }
+
+    public static TravelMatrix compute(Timetable tt, List<String> fromCodes, List<String> toCodes) {
+        return compute(tt, fromCodes, toCodes, null, null, SearchBudget.UNLIMITED);
+    }
+
+    /** Minutes, and the fare for the class in every cell too when fares is not null. */
+    public static TravelMatrix compute(Timetable tt, List<String> fromCodes, List<String> toCodes,
+                                       FareEngine fares, String classType, SearchBudget budget) {
+        int[] origins = ids(tt, fromCodes), targets = ids(tt, toCodes);
+        int[] minutes = new int[origins.length * targets.length];
+        boolean[] cut = new boolean[origins.length]; // rows the budget stopped, each written by its own task
+        ForkJoinPool.commonPool().invoke(new Rows(tt, origins, targets, minutes, cut, budget, 0, origins.length));
+        boolean partial = false;
+        for (boolean c : cut) partial |= c;
+        return new TravelMatrix(fromCodes.toArray(new String[0]), toCodes.toArray(new String[0]), minutes,
+                fares == null ? null : fares.matrix(origins, targets, classType), partial);
+    }
+
+    private static int[] ids(Timetable tt, List<String> codes) {
+        int[] ids = new int[codes.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = tt.stationId(codes.get(i));
+            if (ids[i] == -1)
+                throw new IllegalArgumentException("Station code not found: " + codes.get(i));
+        }
+        return ids;
+    }
+
+    @SuppressWarnings("serial") // fork-join task, never serialized
+    private static class Rows extends RecursiveAction {
+        private final Timetable tt;
+        private final int[] origins, targets, minutes;
+        private final boolean[] cut;
+        private final SearchBudget budget;
+        private final int lo, hi;
+
+        Rows(Timetable tt, int[] origins, int[] targets, int[] minutes, boolean[] cut, SearchBudget budget,
+             int lo, int hi) {
+            this.tt = tt;
+            this.origins = origins;
+            this.targets = targets;
+            this.minutes = minutes;
+            this.cut = cut;
+            this.budget = budget;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > 1) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new Rows(tt, origins, targets, minutes, cut, budget, lo, mid),
+                        new Rows(tt, origins, targets, minutes, cut, budget, mid, hi));
+                return;
+            }
+            if (lo == hi) return;
+            int offset = lo * targets.length;
+            if (budget.exhausted()) {
+                Arrays.fill(minutes, offset, offset + targets.length, UNREACHABLE);
+                cut[lo] = true;
+            } else {
+                cut[lo] = !scan(tt, origins[lo], targets, minutes, offset, budget);
+            }
+        }
+    }
+
+    /**
+     * Connection scan from one origin, same rules as {@link ConnectionScan}.
+     * A station keeps every arrival some later-starting journey does not
+     * beat, as (arrival, start) pairs, so a train boarded there starts from
+     * the last departure that still makes it and a cell's journey sets off
+     * as late as the single-pair search's does.
+     * Writes one cell per target starting at out[offset]; returns false if the
+     * budget stopped it, leaving the targets not reached by then UNREACHABLE.
+     */
+    private static boolean scan(Timetable tt, int origin, int[] targets, int[] out, int offset, SearchBudget budget) {
+        IntBuffer depStop = tt.depStop, arrStop = tt.arrStop, depTime = tt.depTime, arrTime = tt.arrTime, trip = tt.trip;
+        Arrivals[] at = new Arrivals[tt.stationCount()];
+        int[] tripStart = new int[tt.trains.length];
+        boolean[] boarded = new boolean[tt.trains.length];
+
+        boolean[] isTarget = new boolean[tt.stationCount()];
+        for (int t : targets) isTarget[t] = true;
+        int pending = 0;
+        for (int s = 0; s < isTarget.length; s++) if (isTarget[s] && s != origin) pending++;
+
+        int bound = pending == 0 ? Integer.MIN_VALUE : INF;
+        boolean complete = true;
+        int c = 0, n = depTime.limit();
+        scan:
+        while (c < n) {
+            if (budget.exhausted()) {
+                complete = false;
+                break;
+            }
+            for (int end = Math.min(n, c + 1024); c < end; c++) {
+                int dep = depTime.get(c);
+                if (dep >= bound) break scan;
+
+                // boarding here may start later than where the train was first caught
+                int t = trip.get(c);
+                int s = depStop.get(c);
+                Arrivals here = at[s];
+                if (s == origin || here != null && (!boarded[t] || here.latestStart() > tripStart[t])) {
+                    int start = s == origin ? dep : here.latestStart(dep - RouteFinder.MIN_TRANSFER_MINUTES);
+                    if (!boarded[t]) {
+                        if (start == Integer.MIN_VALUE) continue;
+                        boarded[t] = true;
+                        tripStart[t] = start;
+                    } else if (start > tripStart[t]) {
+                        tripStart[t] = start;
+                    }
+                } else if (!boarded[t]) {
+                    continue;
+                }
+
+                int a = arrStop.get(c);
+                if (at[a] == null) at[a] = new Arrivals();
+                boolean firstReach = at[a].earliest == INF;
+                at[a].add(arrTime.get(c), tripStart[t]);
+                if (firstReach && isTarget[a] && a != origin && --pending == 0) {
+                    // every target reached: once departures pass the latest of them nothing can improve
+                    bound = 0;
+                    for (int target : targets) if (target != origin) bound = Math.max(bound, at[target].earliest);
+                }
+            }
+        }
+
+        for (int i = 0; i < targets.length; i++) {
+            Arrivals reached = at[targets[i]];
+            if (targets[i] == origin) out[offset + i] = 0;
+            else out[offset + i] = reached == null ? UNREACHABLE : reached.earliest - reached.earliestStart;
+        }
+        return complete;
+    }
+
+    /**
+     * Arrivals at one station, each starting later than any arriving before
+     * it. Boarding asks in departure order, so the ones it has passed fold
+     * into a single latest start and only those still ahead are kept.
+     */
+    private static final class Arrivals {
+        int earliest = INF, earliestStart; // the station's earliest arrival, and its latest start
+        int passed = Integer.MIN_VALUE;    // latest start among arrivals already asked past
+        int[] arrival = new int[4];
+        int[] start = new int[4];
+        int size;
+
+        /** Latest start among arrivals by the minute, or Integer.MIN_VALUE if none. */
+        int latestStart(int minute) {
+            int k = 0;
+            while (k < size && arrival[k] <= minute) passed = start[k++];
+            if (k > 0) {
+                System.arraycopy(arrival, k, arrival, 0, size - k);
+                System.arraycopy(start, k, start, 0, size - k);
+                size -= k;
+            }
+            return passed;
+        }
+
+        /** Latest start without consuming anything, for a quick look. */
+        int latestStart() {
+            return size == 0 ? passed : start[size - 1];
+        }
+
+        void add(int arr, int from) {
+            if (arr < earliest || arr == earliest && from > earliestStart) {
+                earliest = arr;
+                earliestStart = from;
+            }
+            if (passed >= from) return;
+            int k = 0;
+            while (k < size && arrival[k] <= arr) k++;
+            if (k > 0 && start[k - 1] >= from) return; // as early and setting off no later
+            int lo = k;
+            while (lo > 0 && arrival[lo - 1] == arr) lo--;
+            int hi = k;
+            while (hi < size && start[hi] <= from) hi++;
+            // lo..hi arrive no earlier and start no later: replace them with this one
+            int shift = 1 - (hi - lo);
+            if (size + shift > arrival.length) {
+                arrival = Arrays.copyOf(arrival, arrival.length * 2);
+                start = Arrays.copyOf(start, start.length * 2);
+            }
+            System.arraycopy(arrival, hi, arrival, lo + 1, size - hi);
+            System.arraycopy(start, hi, start, lo + 1, size - hi);
+            arrival[lo] = arr;
+            start[lo] = from;
+            size += shift;
+        }
+    }
+
+    // -------------------- CSV --------------------
+    /**
+     * Header row of destination codes, then one row per origin; unreachable
+     * cells are left empty. Cells hold fares instead of minutes when the
+     * matrix has them.
+     */
+    public void writeCsv(Writer out) throws IOException {
+        StringBuilder line = new StringBuilder("from");
+        for (String code : toCodes) line.append(',').append(code);
+        out.write(line.append('\n').toString());
+        for (int r = 0; r < fromCodes.length; r++) {
+            line.setLength(0);
+            line.append(fromCodes[r]);
+            for (int c = 0; c < toCodes.length; c++) {
+                line.append(',');
+                int m = minutes(r, c);
+                if (m == UNREACHABLE) continue;
+                if (fares != null) line.append(String.format("%.2f", fare(r, c)));
+                else line.append(m);
+            }
+            out.write(line.append('\n').toString());
+        }
+        out.flush();
+    }
+
+    /** Usage: TravelMatrix fromState|ALL toState|ALL [out.csv]; prints to stdout without a file. */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("usage: TravelMatrix <fromState|ALL> <toState|ALL> [out.csv]");
+            return;
+        }
+        RouteFinder.loadTimetable();
+        RoutingSnapshot snap = RouteFinder.snapshot();
+        long start = System.nanoTime();
+        TravelMatrix m = snap.matrix(codesIn(snap, args[0]), codesIn(snap, args[1]));
+        System.err.printf("Matrix %d x %d in %d ms%n", m.rows(), m.columns(), (System.nanoTime() - start) / 1_000_000);
+
+        if (args.length > 2) {
+            try (Writer out = Files.newBufferedWriter(Path.of(args[2]), StandardCharsets.UTF_8)) {
+                m.writeCsv(out);
+            }
+        } else {
+            m.writeCsv(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+        }
+    }
+
+    /** Codes of a state's stations, or every station for "ALL". */
+    static List<String> codesIn(RoutingSnapshot snap, String state) {
+        if (state.equalsIgnoreCase("ALL")) return List.of(snap.timetable().codes);
+        return snap.index().codesIn(state);
+    }
+}